@@ -0,0 +1,101 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * JMH benchmarks of the SimpleMap operations on TreeMap and ConcurrentSkipListMap, as baselines
+ * for SkipListBenchmark.
+ */
+public class BaselineBenchmark extends MapBenchmark {
+
+  // +------------+--------------------------------------------------
+  // | Parameters |
+  // +------------+
+
+  /**
+   * Which map to measure.
+   */
+  public enum Implementation {
+    TREE_MAP, CONCURRENT_SKIP_LIST_MAP
+  } // Implementation
+
+  @Param({"TREE_MAP", "CONCURRENT_SKIP_LIST_MAP"})
+  Implementation implementation;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  @Override
+  SimpleMap<Integer, Integer> create(Comparator<Integer> order,
+      List<Map.Entry<Integer, Integer>> entries) {
+    NavigableMap<Integer, Integer> map = (this.implementation == Implementation.TREE_MAP)
+        ? new TreeMap<Integer, Integer>(order)
+        : new ConcurrentSkipListMap<Integer, Integer>(order);
+    for (Map.Entry<Integer, Integer> entry : entries) {
+      map.put(entry.getKey(), entry.getValue());
+    } // for
+    return new NavigableMapAdapter<Integer, Integer>(map);
+  } // create(Comparator<Integer>, List)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * A SimpleMap over a java.util.NavigableMap, so the baselines run the same benchmark code.
+   */
+  static class NavigableMapAdapter<K, V> implements SimpleMap<K, V> {
+    final NavigableMap<K, V> map;
+
+    NavigableMapAdapter(NavigableMap<K, V> map) {
+      this.map = map;
+    } // NavigableMapAdapter(NavigableMap)
+
+    @Override
+    public V set(K key, V value) {
+      return this.map.put(key, value);
+    } // set(K, V)
+
+    @Override
+    public V get(K key) {
+      return this.map.get(key);
+    } // get(K)
+
+    @Override
+    public int size() {
+      return this.map.size();
+    } // size()
+
+    @Override
+    public boolean containsKey(K key) {
+      return this.map.containsKey(key);
+    } // containsKey(K)
+
+    @Override
+    public V remove(K key) {
+      return this.map.remove(key);
+    } // remove(K)
+
+    @Override
+    public Iterator<K> keys() {
+      return this.map.keySet().iterator();
+    } // keys()
+
+    @Override
+    public Iterator<V> values() {
+      return this.map.values().iterator();
+    } // values()
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      this.map.forEach(action);
+    } // forEach(BiConsumer)
+  } // NavigableMapAdapter<K, V>
+} // BaselineBenchmark
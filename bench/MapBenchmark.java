@@ -0,0 +1,294 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of the SimpleMap operations, shared by SkipListBenchmark and BaselineBenchmark.
+ * Each subclass builds its own map and adds the parameters that only it uses, so that JMH does
+ * not run a baseline once for every setting of a SkipList parameter. See README.md for how to
+ * build and run them.
+ *
+ * Throughput mode reports ops/us; sample mode reports latency percentiles in us. Run with
+ * -prof gc for bytes allocated per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class MapBenchmark {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How many probe keys to draw ahead of time. A power of two, so the index wraps with a mask.
+   */
+  static final int PROBES = 1 << 16;
+
+  /**
+   * The skew of the Zipfian distribution, as in YCSB.
+   */
+  static final double ZIPF_THETA = 0.99;
+
+  // +------------+--------------------------------------------------
+  // | Parameters |
+  // +------------+
+
+  /**
+   * How keys are drawn for each operation.
+   */
+  public enum Distribution {
+    SEQUENTIAL, UNIFORM, ZIPFIAN
+  } // Distribution
+
+  /**
+   * How keys are compared.
+   */
+  public enum ComparatorKind {
+    /**
+     * Integer.compareTo, through the default constructor.
+     */
+    NATURAL,
+
+    /**
+     * The lambda the tests use, (i, j) -> i - j.
+     */
+    LAMBDA,
+
+    /**
+     * Comparing strings, as the old default comparator did.
+     */
+    TO_STRING
+  } // ComparatorKind
+
+  @Param({"1000", "100000", "10000000"})
+  int size;
+
+  @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+  Distribution distribution;
+
+  @Param({"NATURAL", "LAMBDA", "TO_STRING"})
+  ComparatorKind comparator;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The map under test. It holds the even keys 0, 2, ..., 2 * (size - 1).
+   */
+  SimpleMap<Integer, Integer> map;
+
+  /**
+   * Keys in the map, in the order the operations use them.
+   */
+  Integer[] present;
+
+  /**
+   * Keys not in the map (the odd neighbors of present), in the same order.
+   */
+  Integer[] absent;
+
+  /**
+   * The position in the probe arrays.
+   */
+  int next;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  /**
+   * Build the map under test, holding entries, which are sorted by order.
+   */
+  abstract SimpleMap<Integer, Integer> create(Comparator<Integer> order,
+      List<Map.Entry<Integer, Integer>> entries);
+
+  @Setup
+  public void setup() {
+    Comparator<Integer> order = comparator(this.comparator);
+    Integer[] keys = new Integer[this.size];
+    for (int i = 0; i < this.size; i++) {
+      keys[i] = 2 * i;
+    } // for
+    Arrays.sort(keys, order);
+    ArrayList<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+    for (Integer key : keys) {
+      entries.add(new AbstractMap.SimpleImmutableEntry<Integer, Integer>(key, key));
+    } // for
+
+    this.map = this.create(order, entries);
+
+    int[] indices = probes(this.distribution, this.size, new Random(42));
+    this.present = new Integer[PROBES];
+    this.absent = new Integer[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      this.present[i] = 2 * indices[i];
+      this.absent[i] = 2 * indices[i] + 1;
+    } // for
+    this.next = 0;
+  } // setup()
+
+  // +------------+--------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  @Benchmark
+  public Integer get() {
+    return this.map.get(this.present[this.advance()]);
+  } // get()
+
+  @Benchmark
+  public boolean containsKey() {
+    return this.map.containsKey(this.present[this.advance()]);
+  } // containsKey()
+
+  /**
+   * Replace the value of a present key.
+   */
+  @Benchmark
+  public Integer set() {
+    Integer key = this.present[this.advance()];
+    return this.map.set(key, key);
+  } // set()
+
+  /**
+   * Insert an absent key and remove it again, so the size stays fixed. Each invocation is one
+   * insertion and one removal.
+   */
+  @Benchmark
+  public Integer remove() {
+    Integer key = this.absent[this.advance()];
+    this.map.set(key, key);
+    return this.map.remove(key);
+  } // remove()
+
+  /**
+   * Walk all of the keys.
+   */
+  @Benchmark
+  public void iterate(Blackhole hole) {
+    for (Iterator<Integer> keys = this.map.keys(); keys.hasNext();) {
+      hole.consume(keys.next());
+    } // for
+  } // iterate(Blackhole)
+
+  /**
+   * Visit all of the pairs.
+   */
+  @Benchmark
+  public void forEach(Blackhole hole) {
+    this.map.forEach((key, value) -> hole.consume(value));
+  } // forEach(Blackhole)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the next probe position.
+   */
+  int advance() {
+    int i = this.next;
+    this.next = (i + 1) & (PROBES - 1);
+    return i;
+  } // advance()
+
+  /**
+   * Build the comparator a parameter names.
+   */
+  static Comparator<Integer> comparator(ComparatorKind kind) {
+    switch (kind) {
+      case NATURAL:
+        return Comparator.naturalOrder();
+      case LAMBDA:
+        return (i, j) -> i - j;
+      default:
+        return (k1, k2) -> k1.toString().compareTo(k2.toString());
+    } // switch
+  } // comparator(ComparatorKind)
+
+  /**
+   * Draw PROBES indices in [0, size) from a distribution. Zipfian ranks are scattered over the
+   * indices so that the hot keys are not all neighbors.
+   */
+  static int[] probes(Distribution distribution, int size, Random random) {
+    int[] indices = new int[PROBES];
+    if (distribution == Distribution.SEQUENTIAL) {
+      for (int i = 0; i < PROBES; i++) {
+        indices[i] = i % size;
+      } // for
+    } else if (distribution == Distribution.UNIFORM) {
+      for (int i = 0; i < PROBES; i++) {
+        indices[i] = random.nextInt(size);
+      } // for
+    } else {
+      Zipf zipf = new Zipf(size, ZIPF_THETA);
+      for (int i = 0; i < PROBES; i++) {
+        indices[i] = (int) ((zipf.next(random) * 0x9E3779B97F4A7C15L >>> 1) % size);
+      } // for
+    } // if/else
+    return indices;
+  } // probes(Distribution, int, Random)
+
+  /**
+   * Draws ranks from a Zipfian distribution over [0, n), following Gray et al., "Quickly
+   * Generating Billion-Record Synthetic Databases", as YCSB does.
+   */
+  static class Zipf {
+    final int n;
+    final double theta;
+    final double alpha;
+    final double zetan;
+    final double eta;
+
+    Zipf(int n, double theta) {
+      this.n = n;
+      this.theta = theta;
+      double zeta2 = zeta(2, theta);
+      this.zetan = zeta(n, theta);
+      this.alpha = 1.0 / (1.0 - theta);
+      this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / this.zetan);
+    } // Zipf(int, double)
+
+    static double zeta(int n, double theta) {
+      double sum = 0;
+      for (int i = 1; i <= n; i++) {
+        sum += 1 / Math.pow(i, theta);
+      } // for
+      return sum;
+    } // zeta(int, double)
+
+    long next(Random random) {
+      double u = random.nextDouble();
+      double uz = u * this.zetan;
+      if (uz < 1.0) {
+        return 0;
+      } else if (uz < 1.0 + Math.pow(0.5, this.theta)) {
+        return 1;
+      } // if/else
+      return (long) (this.n * Math.pow(this.eta * u - this.eta + 1, this.alpha));
+    } // next(Random)
+  } // Zipf
+} // MapBenchmark
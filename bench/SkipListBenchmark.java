@@ -0,0 +1,38 @@
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * JMH benchmarks of the SimpleMap operations on SkipList. BaselineBenchmark runs the same
+ * operations on TreeMap and ConcurrentSkipListMap.
+ */
+public class SkipListBenchmark extends MapBenchmark {
+
+  // +------------+--------------------------------------------------
+  // | Parameters |
+  // +------------+
+
+  @Param({"0.25", "0.5"})
+  double prob;
+
+  @Param({"0", "1024"})
+  int frontCache;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  @Override
+  SimpleMap<Integer, Integer> create(Comparator<Integer> order,
+      List<Map.Entry<Integer, Integer>> entries) {
+    SkipList<Integer, Integer> list = (this.comparator == ComparatorKind.NATURAL)
+        ? new SkipList<Integer, Integer>()
+        : new SkipList<Integer, Integer>(order);
+    list.prob = this.prob;
+    list.setFrontCache(this.frontCache);
+    // Bulk loading draws heights exactly as set does, so the shape is the same.
+    list.bulkLoad(entries.iterator());
+    return list;
+  } // create(Comparator<Integer>, List)
+} // SkipListBenchmark
@@ -20,7 +20,7 @@ public class Analysis {
     JFrame frame = new JFrame();
     frame.getContentPane().setLayout(new BorderLayout());
     Random rand = new Random();
-    int num = 0;
+    HistogramMetrics metrics = new HistogramMetrics();
 
     // Test the skiplist's time consume by increasing length.
     int[] time = new int[1000];
@@ -29,13 +29,14 @@ public class Analysis {
       for (int j = 0; j <= i; j++) {
         test.set(j, j);
       } // for
+      metrics.reset();
+      test.setMetrics(metrics);
       for (int k = 0; k < 20; k++) {
-        test.recounter();
         test.get(rand.nextInt(i));
-        num += test.counter;
       } // for
-      time[i] = num / 20;
-      num = 0;
+      HistogramMetrics.Snapshot snapshot = metrics.snapshot();
+      time[i] = (int) Math.round(snapshot.meanHops(SkipListMetrics.Operation.GET)
+          + snapshot.meanLevels(SkipListMetrics.Operation.GET));
     } // for
 
     // Draw the scatter plot.
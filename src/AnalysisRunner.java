@@ -0,0 +1,323 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Measure how long a skip list takes to find a key as it grows, without a display. For each size
+ * it times a number of random gets in nanoseconds and counts the steps each one takes, then writes
+ * the results as CSV and/or JSON and can draw the same scatter plot as Analysis into a PNG.
+ *
+ * One list is grown from one size to the next, so the total work is linear in the largest size
+ * rather than quadratic.
+ *
+ * Usage: java AnalysisRunner [--sizes n1,n2,...] [--reps r] [--seed s] [--csv file]
+ * [--json file] [--png file]
+ */
+public class AnalysisRunner {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The sizes measured when none are given: 1, 2 and 5 times each power of ten from 1e3 to 1e6.
+   */
+  static final int[] DEFAULT_SIZES =
+      {1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000, 1000000};
+
+  /**
+   * The gets timed at each size when no count is given.
+   */
+  static final int DEFAULT_REPS = 10000;
+
+  /**
+   * The height of the plot, as in Analysis.
+   */
+  static final int PLOT_HEIGHT = 1200;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The sizes to measure, in increasing order.
+   */
+  int[] sizes = DEFAULT_SIZES;
+
+  /**
+   * The number of gets timed at each size.
+   */
+  int reps = DEFAULT_REPS;
+
+  /**
+   * The source of keys to look up.
+   */
+  Random random = new Random();
+
+  /**
+   * The steps taken by the most recent search: the links followed plus the levels visited.
+   */
+  int lastSteps;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a runner with the default sizes and repetitions.
+   */
+  public AnalysisRunner() {} // AnalysisRunner()
+
+  /**
+   * Create a runner that measures the given sizes, reps gets each, drawing keys from seed.
+   *
+   * @throws IllegalArgumentException if a size or reps is not positive.
+   */
+  public AnalysisRunner(int[] sizes, int reps, long seed) {
+    if (reps < 1) {
+      throw new IllegalArgumentException("reps must be positive");
+    } // if
+    this.sizes = sizes.clone();
+    Arrays.sort(this.sizes);
+    if (this.sizes.length > 0 && this.sizes[0] < 1) {
+      throw new IllegalArgumentException("sizes must be positive");
+    } // if
+    this.reps = reps;
+    this.random = new Random(seed);
+  } // AnalysisRunner(int[], int, long)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  public static void main(String[] args) throws IOException {
+    int[] sizes = DEFAULT_SIZES;
+    int reps = DEFAULT_REPS;
+    long seed = System.nanoTime();
+    String csv = null;
+    String json = null;
+    String png = null;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        usage("missing value for " + args[i]);
+      } // if
+      String value = args[++i];
+      switch (args[i - 1]) {
+        case "--sizes":
+          sizes = Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim()))
+              .toArray();
+          break;
+        case "--reps":
+          reps = Integer.parseInt(value);
+          break;
+        case "--seed":
+          seed = Long.parseLong(value);
+          break;
+        case "--csv":
+          csv = value;
+          break;
+        case "--json":
+          json = value;
+          break;
+        case "--png":
+          png = value;
+          break;
+        default:
+          usage("unknown option " + args[i - 1]);
+      } // switch
+    } // for
+
+    List<Sample> samples = new AnalysisRunner(sizes, reps, seed).run();
+    if (csv == null && json == null) {
+      writeCsv(samples, new PrintWriter(System.out, true));
+    } // if
+    if (csv != null) {
+      try (PrintWriter pen = new PrintWriter(csv, "UTF-8")) {
+        writeCsv(samples, pen);
+      } // try
+    } // if
+    if (json != null) {
+      try (PrintWriter pen = new PrintWriter(json, "UTF-8")) {
+        writeJson(samples, pen);
+      } // try
+    } // if
+    if (png != null) {
+      writePng(samples, new File(png));
+    } // if
+  } // main(String[])
+
+  /**
+   * Report a bad command line and exit.
+   */
+  static void usage(String problem) {
+    System.err.println(problem);
+    System.err.println("usage: java AnalysisRunner [--sizes n1,n2,...] [--reps r] [--seed s]"
+        + " [--csv file] [--json file] [--png file]");
+    System.exit(2);
+  } // usage(String)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Grow a list through each size and measure gets of random keys at each.
+   */
+  public List<Sample> run() {
+    SkipList<Integer, Integer> list = new SkipList<Integer, Integer>();
+    list.setMetrics((op, hops, levels, comparisons) -> this.lastSteps = hops + levels);
+    List<Sample> samples = new ArrayList<Sample>();
+    long[] nanos = new long[this.reps];
+    double[] steps = new double[this.reps];
+    int filled = 0;
+    for (int size : this.sizes) {
+      for (; filled < size; filled++) {
+        list.set(filled, filled);
+      } // for
+      // A first pass lets the JIT compile the search before the timed pass.
+      this.measure(list, size, nanos, steps);
+      this.measure(list, size, nanos, steps);
+      samples.add(new Sample(size, nanos, steps));
+    } // for
+    return samples;
+  } // run()
+
+  /**
+   * Time reps gets of random keys in [0, size).
+   */
+  void measure(SkipList<Integer, Integer> list, int size, long[] nanos, double[] steps) {
+    int sink = 0;
+    for (int i = 0; i < nanos.length; i++) {
+      Integer key = this.random.nextInt(size);
+      long start = System.nanoTime();
+      sink += list.get(key);
+      nanos[i] = System.nanoTime() - start;
+      steps[i] = this.lastSteps;
+    } // for
+    if (sink == 42) {
+      // Keeps the gets from being optimized away.
+      System.err.print("");
+    } // if
+  } // measure(SkipList, int, long[], double[])
+
+  // +--------+------------------------------------------------------
+  // | Output |
+  // +--------+
+
+  /**
+   * Write one line per size, with a header.
+   */
+  public static void writeCsv(List<Sample> samples, PrintWriter pen) {
+    pen.println("size,reps,mean_ns,p50_ns,p90_ns,p99_ns,max_ns,mean_steps,max_steps");
+    for (Sample s : samples) {
+      pen.println(s.size + "," + s.reps + "," + s.meanNanos + "," + s.p50Nanos + "," + s.p90Nanos
+          + "," + s.p99Nanos + "," + s.maxNanos + "," + s.meanSteps + "," + s.maxSteps);
+    } // for
+    pen.flush();
+  } // writeCsv(List<Sample>, PrintWriter)
+
+  /**
+   * Write the samples as a JSON array of objects.
+   */
+  public static void writeJson(List<Sample> samples, PrintWriter pen) {
+    pen.println("[");
+    for (int i = 0; i < samples.size(); i++) {
+      Sample s = samples.get(i);
+      pen.print("  {\"size\": " + s.size + ", \"reps\": " + s.reps + ", \"mean_ns\": " + s.meanNanos
+          + ", \"p50_ns\": " + s.p50Nanos + ", \"p90_ns\": " + s.p90Nanos + ", \"p99_ns\": "
+          + s.p99Nanos + ", \"max_ns\": " + s.maxNanos + ", \"mean_steps\": " + s.meanSteps
+          + ", \"max_steps\": " + s.maxSteps + "}");
+      pen.println(i + 1 < samples.size() ? "," : "");
+    } // for
+    pen.println("]");
+    pen.flush();
+  } // writeJson(List<Sample>, PrintWriter)
+
+  /**
+   * Draw the mean steps at each size as Analysis does, but into a PNG file.
+   */
+  public static void writePng(List<Sample> samples, File file) throws IOException {
+    int[] time = new int[samples.size()];
+    for (int i = 0; i < time.length; i++) {
+      time[i] = (int) Math.round(samples.get(i).meanSteps);
+    } // for
+    int width = Math.max(3 * time.length, 1);
+    BufferedImage image = new BufferedImage(width, PLOT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    try {
+      new ArrayPanel(time, width, PLOT_HEIGHT).paintComponent(g);
+    } finally {
+      g.dispose();
+    } // try/finally
+    ImageIO.write(image, "png", file);
+  } // writePng(List<Sample>, File)
+
+  // +--------------+------------------------------------------------
+  // | Sample class |
+  // +--------------+
+
+  /**
+   * The measurements at one size.
+   */
+  public static class Sample {
+    /**
+     * The number of entries in the list.
+     */
+    public final int size;
+
+    /**
+     * The number of gets timed.
+     */
+    public final int reps;
+
+    /**
+     * Nanoseconds per get: the mean, percentiles and maximum.
+     */
+    public final double meanNanos;
+    public final long p50Nanos;
+    public final long p90Nanos;
+    public final long p99Nanos;
+    public final long maxNanos;
+
+    /**
+     * Steps per get, as the list counts them: the mean and maximum.
+     */
+    public final double meanSteps;
+    public final double maxSteps;
+
+    /**
+     * Summarize the raw times and step counts of the gets at one size.
+     */
+    Sample(int size, long[] nanos, double[] steps) {
+      this.size = size;
+      this.reps = nanos.length;
+      long[] sorted = nanos.clone();
+      Arrays.sort(sorted);
+      this.meanNanos = Arrays.stream(sorted).average().orElse(0);
+      this.p50Nanos = percentile(sorted, 0.50);
+      this.p90Nanos = percentile(sorted, 0.90);
+      this.p99Nanos = percentile(sorted, 0.99);
+      this.maxNanos = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+      this.meanSteps = Arrays.stream(steps).average().orElse(0);
+      this.maxSteps = Arrays.stream(steps).max().orElse(0);
+    } // Sample(int, long[], double[])
+
+    /**
+     * Get the value at fraction q of a sorted array, by the nearest-rank method.
+     */
+    static long percentile(long[] sorted, double q) {
+      if (sorted.length == 0) {
+        return 0;
+      } // if
+      int rank = (int) Math.ceil(q * sorted.length);
+      return sorted[Math.max(rank, 1) - 1];
+    } // percentile(long[], double)
+  } // Sample
+} // AnalysisRunner
@@ -0,0 +1,95 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns keys or values into bytes and back, for the formats that store a skip list outside the
+ * heap. The length of each encoding is stored next to it, so a codec need not delimit its own
+ * output or know its length in advance.
+ */
+public interface Codec<T> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Ints as four big-endian bytes.
+   */
+  public static final Codec<Integer> INT = new Codec<Integer>() {
+    @Override
+    public void encode(Integer value, ByteBuffer out) {
+      out.putInt(value);
+    } // encode(Integer, ByteBuffer)
+
+    @Override
+    public Integer decode(ByteBuffer in, int length) {
+      return in.getInt();
+    } // decode(ByteBuffer, int)
+  }; // INT
+
+  /**
+   * Longs as eight big-endian bytes.
+   */
+  public static final Codec<Long> LONG = new Codec<Long>() {
+    @Override
+    public void encode(Long value, ByteBuffer out) {
+      out.putLong(value);
+    } // encode(Long, ByteBuffer)
+
+    @Override
+    public Long decode(ByteBuffer in, int length) {
+      return in.getLong();
+    } // decode(ByteBuffer, int)
+  }; // LONG
+
+  /**
+   * Strings as UTF-8.
+   */
+  public static final Codec<String> STRING = new Codec<String>() {
+    @Override
+    public void encode(String value, ByteBuffer out) {
+      out.put(value.getBytes(StandardCharsets.UTF_8));
+    } // encode(String, ByteBuffer)
+
+    @Override
+    public String decode(ByteBuffer in, int length) {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    } // decode(ByteBuffer, int)
+  }; // STRING
+
+  /**
+   * Byte arrays as themselves.
+   */
+  public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+    @Override
+    public void encode(byte[] value, ByteBuffer out) {
+      out.put(value);
+    } // encode(byte[], ByteBuffer)
+
+    @Override
+    public byte[] decode(ByteBuffer in, int length) {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      return bytes;
+    } // decode(ByteBuffer, int)
+  }; // BYTES
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Write value, which is never null, at the position of out, leaving the position after it. If
+   * out has too little room, encode throws BufferOverflowException and the caller tries again
+   * with more.
+   */
+  public void encode(T value, ByteBuffer out);
+
+  /**
+   * Read a value from the length bytes at the position of in, leaving the position after them.
+   */
+  public T decode(ByteBuffer in, int length);
+
+} // Codec<T>
@@ -0,0 +1,490 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+
+/**
+ * A lock-free skip list that many threads may use at once.
+ *
+ * A node is removed in three steps. First its value is swapped for REMOVED with compare-and-set;
+ * that is the logical deletion, and exactly one remover wins it. Then each link in its tower,
+ * which is an AtomicMarkableReference, is marked from the top level down so that nothing new is
+ * linked after it. Finally a search unlinks it; any search that finds a marked link helps by
+ * unlinking it too. A node is in the map exactly when its value is not REMOVED, so get and
+ * containsKey never retry or help: they are wait-free.
+ *
+ * Values of present keys are replaced with compare-and-set. Iterators are weakly consistent.
+ */
+public class ConcurrentSkipList<K, V> implements SimpleMap<K, V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The maximum height of a node. Heights are drawn with probability 1/2, so this covers any
+   * list that fits in memory.
+   */
+  static final int MAX_HEIGHT = 32;
+
+  /**
+   * The value of a node that has been removed.
+   */
+  static final Object REMOVED = new Object();
+
+  /**
+   * Atomic access to CSLNode.value.
+   */
+  @SuppressWarnings("rawtypes")
+  static final AtomicReferenceFieldUpdater<CSLNode, Object> VALUE =
+      AtomicReferenceFieldUpdater.newUpdater(CSLNode.class, Object.class, "value");
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * A sentinel node whose links are the pointers to all the front elements.
+   */
+  final CSLNode<K, V> head;
+
+  /**
+   * The comparator used to determine the ordering in the list.
+   */
+  final Comparator<K> comparator;
+
+  /**
+   * The number of values in the list.
+   */
+  final AtomicInteger size;
+
+  /**
+   * The number of levels that searches descend: at least the height of every node ever linked.
+   * A set raises it before linking a taller node, and it never falls, so a search that starts
+   * below a level with no nodes is never wrong, only slower.
+   */
+  final AtomicInteger height;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new skip list that orders values using the specified comparator.
+   */
+  public ConcurrentSkipList(Comparator<K> comparator) {
+    this.head = new CSLNode<K, V>(null, null, MAX_HEIGHT);
+    this.comparator = comparator;
+    this.size = new AtomicInteger(0);
+    this.height = new AtomicInteger(1);
+  } // ConcurrentSkipList(Comparator<K>)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key.
+   *
+   * @return the previous value associated with key (or null, if there's no such value)
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public V set(K key, V value) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    int h = randomHeight();
+    // Raise the height before the first search, so that it finds neighbors on every level the
+    // node may link into; only those levels need them.
+    this.raise(h);
+    CSLNode<K, V>[] preds = newTower(h);
+    CSLNode<K, V>[] succs = newTower(h);
+    CSLNode<K, V> node = null;
+    while (true) {
+      CSLNode<K, V> found = this.search(key, preds, succs);
+      if (found != null) {
+        Object val = found.value;
+        while (val != REMOVED) {
+          if (VALUE.compareAndSet(found, val, value)) {
+            return unwrap(val);
+          } // if
+          val = found.value;
+        } // while
+        // Help the remover that beat us so the next search can unlink the node.
+        this.markTower(found);
+        continue;
+      } // if the key is present
+
+      if (node == null) {
+        node = new CSLNode<K, V>(key, value, h);
+      } // if
+      for (int level = 0; level < h; level++) {
+        node.next[level].set(succs[level], false);
+      } // for
+      // Linking level 0 is the linearization point.
+      if (!preds[0].next[0].compareAndSet(succs[0], node, false, false)) {
+        continue;
+      } // if someone got there first
+      this.size.incrementAndGet();
+      for (int level = 1; level < h; level++) {
+        while (true) {
+          CSLNode<K, V> succ = node.next[level].getReference();
+          if (node.next[level].isMarked()) {
+            // The node is being removed; stop linking higher levels.
+            return null;
+          } // if
+          if (succ != succs[level] && !node.next[level].compareAndSet(succ, succs[level], false,
+              false)) {
+            continue;
+          } // if the tower pointer is stale, refresh it
+          if (preds[level].next[level].compareAndSet(succs[level], node, false, false)) {
+            break;
+          } // if
+          this.search(key, preds, succs);
+          if (succs[0] != node) {
+            return null;
+          } // if the node was removed meanwhile
+        } // while
+      } // for
+      return null;
+    } // while
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the map.
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public V get(K key) {
+    CSLNode<K, V> node = this.find(key);
+    if (node == null) {
+      throw new IndexOutOfBoundsException("invalid key");
+    } // if
+    Object val = node.value;
+    if (val == REMOVED) {
+      throw new IndexOutOfBoundsException("invalid key");
+    } // if removed since find
+    return unwrap(val);
+  } // get(K)
+
+  /**
+   * Determine how many values are in the map.
+   */
+  @Override
+  public int size() {
+    // A remove can briefly run ahead of the set that it undoes.
+    return Math.max(0, this.size.get());
+  } // size()
+
+  /**
+   * Determine if a key appears in the table.
+   */
+  @Override
+  public boolean containsKey(K key) {
+    return this.find(key) != null;
+  } // containsKey(K)
+
+  /**
+   * Remove the value with the given key.
+   *
+   * @return The associated value (or null, if there is no associated value).
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public V remove(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    // Removing needs only the node; the search unlinks it on every level.
+    CSLNode<K, V>[] preds = newTower(1);
+    CSLNode<K, V>[] succs = newTower(1);
+    while (true) {
+      CSLNode<K, V> node = this.search(key, preds, succs);
+      if (node == null) {
+        return null;
+      } // if
+      // Swapping in REMOVED is the linearization point; exactly one remover wins it.
+      Object val = node.value;
+      while (val != REMOVED) {
+        if (VALUE.compareAndSet(node, val, REMOVED)) {
+          this.size.decrementAndGet();
+          this.markTower(node);
+          this.search(key, preds, succs);
+          return unwrap(val);
+        } // if
+        val = node.value;
+      } // while
+      // Another remover won; help it so the next search sees past the node.
+      this.markTower(node);
+    } // while
+  } // remove(K)
+
+  /**
+   * Get an iterator for all of the keys in the map.
+   */
+  @Override
+  public Iterator<K> keys() {
+    return new Iterator<K>() {
+      Iterator<CSLNode<K, V>> nit = ConcurrentSkipList.this.nodes();
+
+      @Override
+      public boolean hasNext() {
+        return nit.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return nit.next().key;
+      } // next()
+    };
+  } // keys()
+
+  /**
+   * Get an iterator for all of the values in the map.
+   */
+  @Override
+  public Iterator<V> values() {
+    return new Iterator<V>() {
+      Iterator<CSLNode<K, V>> nit = ConcurrentSkipList.this.nodes();
+
+      /**
+       * The next live value, read once from its node, or REMOVED if none is buffered.
+       */
+      Object pending = REMOVED;
+
+      @Override
+      public boolean hasNext() {
+        // A node can be removed after nodes() passes it, so skip any value that is REMOVED.
+        while (this.pending == REMOVED && nit.hasNext()) {
+          this.pending = nit.next().value;
+        } // while
+        return this.pending != REMOVED;
+      } // hasNext()
+
+      @Override
+      public V next() {
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        Object val = this.pending;
+        this.pending = REMOVED;
+        return unwrap(val);
+      } // next()
+    };
+  } // values()
+
+  /**
+   * Apply a function to each key/value pair.
+   */
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Iterator<CSLNode<K, V>> nit = this.nodes();
+    while (nit.hasNext()) {
+      CSLNode<K, V> node = nit.next();
+      Object val = node.value;
+      if (val != REMOVED) {
+        action.accept(node.key, unwrap(val));
+      } // if
+    } // while
+  } // forEach
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Pick a random height for a new node, with one random draw.
+   */
+  static int randomHeight() {
+    int bits = ThreadLocalRandom.current().nextInt();
+    return Math.min(MAX_HEIGHT, Integer.numberOfTrailingZeros(bits) + 1);
+  } // randomHeight()
+
+  /**
+   * Make sure searches descend at least h levels.
+   */
+  void raise(int h) {
+    int top = this.height.get();
+    while (h > top && !this.height.compareAndSet(top, h)) {
+      top = this.height.get();
+    } // while
+  } // raise(int)
+
+  /**
+   * Convert a value read from a node to the value type.
+   */
+  @SuppressWarnings("unchecked")
+  static <V> V unwrap(Object val) {
+    return (V) val;
+  } // unwrap(Object)
+
+  /**
+   * Mark every link of a removed node, from the top level down, so that searches unlink it and
+   * no set links a new node after it.
+   */
+  void markTower(CSLNode<K, V> node) {
+    boolean[] marked = {false};
+    for (int level = node.next.length - 1; level > -1; level--) {
+      CSLNode<K, V> succ = node.next[level].get(marked);
+      while (!marked[0]) {
+        node.next[level].compareAndSet(succ, succ, false, true);
+        succ = node.next[level].get(marked);
+      } // while
+    } // for
+  } // markTower(CSLNode)
+
+  /**
+   * Find the live node that holds key without modifying anything.
+   */
+  CSLNode<K, V> find(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    boolean[] marked = {false};
+    CSLNode<K, V> pred = this.head;
+    CSLNode<K, V> cur = null;
+    for (int level = this.height.get() - 1; level > -1; level--) {
+      cur = pred.next[level].getReference();
+      while (cur != null) {
+        CSLNode<K, V> succ = cur.next[level].get(marked);
+        if (marked[0]) {
+          // Skip over a node that is being removed.
+          cur = succ;
+          continue;
+        } // if
+        if (this.comparator.compare(cur.key, key) >= 0) {
+          break;
+        } // if
+        pred = cur;
+        cur = succ;
+      } // while
+    } // for
+    if (cur != null && this.comparator.compare(cur.key, key) == 0 && cur.value != REMOVED) {
+      return cur;
+    } // if
+    return null;
+  } // find(K)
+
+  /**
+   * Fill preds and succs with the neighbors of key on their lowest levels, unlinking marked nodes
+   * along the way on every level in use.
+   *
+   * @return the live node with key (or null, if there is no such node)
+   */
+  CSLNode<K, V> search(K key, CSLNode<K, V>[] preds, CSLNode<K, V>[] succs) {
+    boolean[] marked = {false};
+    retry: while (true) {
+      CSLNode<K, V> pred = this.head;
+      for (int level = this.height.get() - 1; level > -1; level--) {
+        CSLNode<K, V> cur = pred.next[level].getReference();
+        while (cur != null) {
+          CSLNode<K, V> succ = cur.next[level].get(marked);
+          while (marked[0]) {
+            if (!pred.next[level].compareAndSet(cur, succ, false, false)) {
+              continue retry;
+            } // if pred changed under us
+            cur = succ;
+            if (cur == null) {
+              break;
+            } // if
+            succ = cur.next[level].get(marked);
+          } // while cur is logically deleted
+          if (cur == null || this.comparator.compare(cur.key, key) >= 0) {
+            break;
+          } // if
+          pred = cur;
+          cur = succ;
+        } // while
+        if (level < preds.length) {
+          preds[level] = pred;
+          succs[level] = cur;
+        } // if
+      } // for
+      CSLNode<K, V> found = succs[0];
+      if (found != null && this.comparator.compare(found.key, key) == 0) {
+        return found;
+      } // if
+      return null;
+    } // while
+  } // search(K, CSLNode[], CSLNode[])
+
+  /**
+   * Get a weakly-consistent iterator for the live nodes.
+   */
+  Iterator<CSLNode<K, V>> nodes() {
+    return new Iterator<CSLNode<K, V>>() {
+      CSLNode<K, V> next = advance(ConcurrentSkipList.this.head);
+
+      CSLNode<K, V> advance(CSLNode<K, V> node) {
+        CSLNode<K, V> cur = node.next[0].getReference();
+        while (cur != null && cur.value == REMOVED) {
+          cur = cur.next[0].getReference();
+        } // while
+        return cur;
+      } // advance(CSLNode)
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public CSLNode<K, V> next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        CSLNode<K, V> temp = this.next;
+        this.next = advance(temp);
+        return temp;
+      } // next()
+    };
+  } // nodes()
+
+  /**
+   * Create an array that can hold a tower of n nodes.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <K, V> CSLNode<K, V>[] newTower(int n) {
+    return (CSLNode<K, V>[]) new CSLNode[n];
+  } // newTower(int)
+
+  /**
+   * Nodes in the concurrent skip list.
+   */
+  static class CSLNode<K, V> {
+    /**
+     * The key.
+     */
+    final K key;
+
+    /**
+     * The value, or REMOVED once the node has been removed.
+     */
+    volatile Object value;
+
+    /**
+     * Pointers to the next nodes, each with a mark meaning "this node is being removed".
+     */
+    final AtomicMarkableReference<CSLNode<K, V>>[] next;
+
+    /**
+     * Create a new node of height n with the specified key and value.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    CSLNode(K key, V value, int n) {
+      this.key = key;
+      this.value = value;
+      this.next = (AtomicMarkableReference<CSLNode<K, V>>[]) new AtomicMarkableReference[n];
+      for (int level = 0; level < n; level++) {
+        this.next[level] = new AtomicMarkableReference<CSLNode<K, V>>(null, false);
+      } // for
+    } // CSLNode(K, V, int)
+  } // CSLNode<K,V>
+} // ConcurrentSkipList<K,V>
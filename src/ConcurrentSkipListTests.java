@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Stress tests of concurrent skip lists. Each test runs several threads against one list and
+ * then checks that the results they saw could come from some sequential order of their
+ * operations.
+ */
+public class ConcurrentSkipListTests {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of threads in each stress test.
+   */
+  static final int THREADS = 8;
+
+  /**
+   * The number of keys in each stress test.
+   */
+  static final int KEYS = 2000;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * A task that a stress test runs on each thread.
+   */
+  interface Task {
+    void run(int thread) throws Exception;
+  } // Task
+
+  /**
+   * Run task on THREADS threads that start together, and rethrow the first failure.
+   */
+  static void together(Task task) throws Exception {
+    CyclicBarrier barrier = new CyclicBarrier(THREADS);
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        try {
+          barrier.await();
+          task.run(thread);
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        } // try/catch
+      }));
+    } // for
+    for (Thread thread : threads) {
+      thread.start();
+    } // for
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    if (failure.get() instanceof AssertionError) {
+      throw (AssertionError) failure.get();
+    } else if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    } // if/else
+  } // together(Task)
+
+  /**
+   * Create an empty list of integers.
+   */
+  static ConcurrentSkipList<Integer, Integer> ints() {
+    return new ConcurrentSkipList<Integer, Integer>((i, j) -> i - j);
+  } // ints()
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * With one thread, the list should behave like any other map.
+   */
+  @Test
+  public void sequentialTest() {
+    ConcurrentSkipList<Integer, Integer> list = ints();
+    TreeMap<Integer, Integer> model = new TreeMap<Integer, Integer>();
+    Random random = new Random();
+    for (int i = 0; i < 5000; i++) {
+      int key = random.nextInt(500);
+      if (random.nextBoolean()) {
+        assertEquals(model.put(key, i), list.set(key, i));
+      } else {
+        assertEquals(model.remove(key), list.remove(key));
+      } // if/else
+      assertEquals(model.size(), list.size());
+    } // for
+    Iterator<Integer> keys = list.keys();
+    for (Integer key : model.keySet()) {
+      assertEquals(key, keys.next());
+      assertEquals(model.get(key), list.get(key));
+    } // for
+    assertFalse(keys.hasNext());
+  } // sequentialTest()
+
+  /**
+   * Threads that touch disjoint keys should each see exactly what a private map would show.
+   */
+  @Test
+  public void disjointKeysTest() throws Exception {
+    ConcurrentSkipList<Integer, Integer> list = ints();
+    together((thread) -> {
+      TreeMap<Integer, Integer> model = new TreeMap<Integer, Integer>();
+      Random random = new Random(thread);
+      for (int i = 0; i < 20000; i++) {
+        int key = random.nextInt(KEYS) * THREADS + thread;
+        switch (random.nextInt(3)) {
+          case 0:
+            assertEquals(model.put(key, i), list.set(key, i));
+            break;
+          case 1:
+            assertEquals(model.remove(key), list.remove(key));
+            break;
+          default:
+            assertEquals(model.containsKey(key), list.containsKey(key));
+        } // switch
+      } // for
+      for (int key = thread; key < KEYS * THREADS; key += THREADS) {
+        assertEquals(model.get(key), list.containsKey(key) ? list.get(key) : null);
+      } // for
+    });
+    Integer prev = null;
+    int count = 0;
+    for (Iterator<Integer> keys = list.keys(); keys.hasNext(); count++) {
+      Integer key = keys.next();
+      assertTrue(prev == null || prev < key);
+      prev = key;
+    } // for
+    assertEquals(count, list.size());
+  } // disjointKeysTest()
+
+  /**
+   * When every thread sets every key, exactly one set per key should find it absent, and when
+   * every thread then removes every key, exactly one remove per key should find it present.
+   */
+  @Test
+  public void contendedKeysTest() throws Exception {
+    ConcurrentSkipList<Integer, Integer> list = ints();
+    AtomicInteger inserts = new AtomicInteger();
+    AtomicInteger removes = new AtomicInteger();
+    together((thread) -> {
+      for (int key = 0; key < KEYS; key++) {
+        if (list.set(key, thread) == null) {
+          inserts.incrementAndGet();
+        } // if
+      } // for
+    });
+    assertEquals(KEYS, inserts.get());
+    assertEquals(KEYS, list.size());
+    together((thread) -> {
+      for (int key = 0; key < KEYS; key++) {
+        if (list.remove(key) != null) {
+          removes.incrementAndGet();
+        } // if
+      } // for
+    });
+    assertEquals(KEYS, removes.get());
+    assertEquals(0, list.size());
+    assertFalse(list.keys().hasNext());
+  } // contendedKeysTest()
+
+  /**
+   * Readers should always find keys that nobody removes, while writers churn the keys between
+   * them.
+   */
+  @Test
+  public void readersDuringChurnTest() throws Exception {
+    ConcurrentSkipList<Integer, Integer> list = ints();
+    for (int key = 0; key < KEYS; key += 2) {
+      list.set(key, key);
+    } // for
+    together((thread) -> {
+      Random random = new Random(thread);
+      for (int i = 0; i < 20000; i++) {
+        int key = random.nextInt(KEYS);
+        if (thread % 2 == 0) {
+          key = key | 1;
+          if (random.nextBoolean()) {
+            list.set(key, key);
+          } else {
+            list.remove(key);
+          } // if/else
+        } else {
+          key = key & ~1;
+          assertTrue(list.containsKey(key));
+          assertEquals(Integer.valueOf(key), list.get(key));
+        } // if/else
+      } // for
+    });
+  } // readersDuringChurnTest()
+
+  /**
+   * Every operation on a few hot keys should fit some sequential history of that key. Each set
+   * writes a distinct value, so in any such history each value written is replaced or removed
+   * exactly once, unless it is the final value, and never before it was written; and a key is
+   * inserted once more than it is removed if it is present at the end, and as often otherwise.
+   */
+  @Test
+  public void historiesTest() throws Exception {
+    ConcurrentSkipList<Integer, Integer> list = ints();
+    int keys = 8;
+    int ops = 20000;
+    // For each thread and operation: the key, the value set (or -1 for a remove), and the value
+    // returned (or -1 for null).
+    int[][] opKeys = new int[THREADS][ops];
+    int[][] written = new int[THREADS][ops];
+    int[][] returned = new int[THREADS][ops];
+    together((thread) -> {
+      Random random = new Random(thread);
+      for (int i = 0; i < ops; i++) {
+        int key = random.nextInt(keys);
+        Integer result;
+        if (random.nextInt(3) == 0) {
+          written[thread][i] = -1;
+          result = list.remove(key);
+        } else {
+          written[thread][i] = thread * ops + i;
+          result = list.set(key, thread * ops + i);
+        } // if/else
+        opKeys[thread][i] = key;
+        returned[thread][i] = (result == null) ? -1 : result;
+      } // for
+    });
+
+    for (int key = 0; key < keys; key++) {
+      TreeMap<Integer, Integer> consumed = new TreeMap<Integer, Integer>();
+      int inserts = 0;
+      int removes = 0;
+      for (int thread = 0; thread < THREADS; thread++) {
+        for (int i = 0; i < ops; i++) {
+          if (opKeys[thread][i] != key) {
+            continue;
+          } // if
+          int value = returned[thread][i];
+          if (value == -1) {
+            if (written[thread][i] != -1) {
+              inserts++;
+            } // if a set found the key absent
+            continue;
+          } else if (written[thread][i] == -1) {
+            removes++;
+          } // if/else
+          assertEquals("value " + value + " returned for the wrong key", key,
+              opKeys[value / ops][value % ops]);
+          assertTrue("value " + value + " was not written",
+              written[value / ops][value % ops] != -1);
+          assertFalse("value " + value + " returned before it was written by its own thread",
+              value / ops == thread && value % ops >= i);
+          assertNull("value " + value + " replaced or removed twice", consumed.put(value, 1));
+        } // for
+      } // for
+      Integer last = list.containsKey(key) ? list.get(key) : null;
+      for (int thread = 0; thread < THREADS; thread++) {
+        for (int i = 0; i < ops; i++) {
+          if (opKeys[thread][i] == key && written[thread][i] != -1) {
+            int value = written[thread][i];
+            assertTrue("value " + value + " was lost",
+                consumed.containsKey(value) != (last != null && last == value));
+          } // if
+        } // for
+      } // for
+      assertEquals(inserts, removes + ((last == null) ? 0 : 1));
+    } // for
+  } // historiesTest()
+
+  /**
+   * A values iterator should skip a value whose node is removed after the iterator reaches it.
+   */
+  @Test
+  public void valuesSkipRemovedTest() throws Exception {
+    ConcurrentSkipList<Integer, Integer> list = ints();
+    list.set(1, 10);
+    list.set(2, 20);
+    Iterator<Integer> values = list.values();
+    list.remove(1);
+    assertTrue(values.hasNext());
+    assertEquals(Integer.valueOf(20), values.next());
+    assertFalse(values.hasNext());
+
+    for (int key = 0; key < KEYS; key++) {
+      list.set(key, key);
+    } // for
+    together((thread) -> {
+      Random random = new Random(thread);
+      for (int i = 0; i < 200; i++) {
+        if (thread % 2 == 0) {
+          int key = random.nextInt(KEYS);
+          list.remove(key);
+          list.set(key, key);
+        } else {
+          for (Iterator<Integer> it = list.values(); it.hasNext(); ) {
+            Integer value = it.next();
+            assertNotNull(value);
+          } // for
+        } // if/else
+      } // for
+    });
+  } // valuesSkipRemovedTest()
+} // class ConcurrentSkipListTests
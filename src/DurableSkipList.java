@@ -0,0 +1,615 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * A skip list whose changes survive a crash. Every set and remove is appended to a write-ahead
+ * log before it returns, and opening the list replays the log (after loading the last
+ * checkpoint, if there is one). A checkpoint writes a snapshot and empties the log.
+ *
+ * Writers that arrive while the log is being written wait and are committed together by the
+ * next write (group commit), so a batch of concurrent writers shares one write and one fsync.
+ * The log is written outside the list's lock: readers share a read lock and never wait for I/O,
+ * and writers hold the write lock only to change the list and copy their record into the
+ * pending batch. A reader may therefore see a change whose set or remove has not yet returned.
+ *
+ * The log is a header (magic and version) followed by records, each an int length, the CRC32
+ * of the body, and the body: an operation byte, the key and, for a set, the value, encoded as in
+ * SkipListSnapshot. A torn or corrupt record ends the log, and replay cuts it off there.
+ */
+public class DurableSkipList<K, V> implements SimpleMap<K, V>, Closeable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of a log, "SKWL".
+   */
+  static final int MAGIC = 0x534B574C;
+
+  /**
+   * The version of the log format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The size of the log header.
+   */
+  static final int HEADER_SIZE = 8;
+
+  /**
+   * The size of a record's length and checksum.
+   */
+  static final int RECORD_HEADER_SIZE = 8;
+
+  /**
+   * The operations in the log.
+   */
+  static final byte SET = 1;
+  static final byte REMOVE = 2;
+
+  /**
+   * The initial size of the pending batch. It grows as needed.
+   */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The entries.
+   */
+  final SkipList<K, V> list;
+
+  /**
+   * How keys are stored.
+   */
+  final Codec<K> keys;
+
+  /**
+   * How values are stored.
+   */
+  final Codec<V> values;
+
+  /**
+   * The log file.
+   */
+  final Path path;
+
+  /**
+   * Where checkpoints are written.
+   */
+  final Path snapshot;
+
+  /**
+   * The open log, positioned at its end.
+   */
+  final FileChannel log;
+
+  /**
+   * Whether each batch is forced to the disk, rather than only handed to the operating system.
+   */
+  final boolean fsync;
+
+  /**
+   * How long a writer that is about to write the log waits for others to join its batch.
+   */
+  final long groupWindowNanos;
+
+  /**
+   * Guards the list, pending and appended: shared by readers, exclusive to writers.
+   */
+  final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Records that have been applied to the list but not written to the log.
+   */
+  ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /**
+   * An empty buffer to swap in for pending. Only the committing writer uses it.
+   */
+  ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /**
+   * The number of records appended to pending since the list was opened.
+   */
+  long appended;
+
+  /**
+   * Guards durable, committing, failure and closed.
+   */
+  final Object commitLock = new Object();
+
+  /**
+   * The number of records known to be in the log.
+   */
+  long durable;
+
+  /**
+   * Whether some writer is writing the log.
+   */
+  boolean committing;
+
+  /**
+   * The error that broke the log, after which no change is accepted.
+   */
+  IOException failure;
+
+  /**
+   * Whether the list has been closed.
+   */
+  boolean closed;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open the list logged at path, ordered by comparator, forcing every batch to the disk and
+   * committing whoever is waiting as soon as the log is free.
+   */
+  public DurableSkipList(Path path, Comparator<K> comparator, Codec<K> keys, Codec<V> values)
+      throws IOException {
+    this(path, comparator, keys, values, true, 0);
+  } // DurableSkipList(Path, Comparator<K>, Codec<K>, Codec<V>)
+
+  /**
+   * Open the list logged at path, ordered by comparator, loading its last checkpoint and
+   * replaying its log. If fsync is false, a batch is written to the operating system but not
+   * forced, so it survives the process crashing but not the machine. A writer that is about to
+   * write the log first waits up to groupWindowMicros for more writers to join its batch.
+   */
+  public DurableSkipList(Path path, Comparator<K> comparator, Codec<K> keys, Codec<V> values,
+      boolean fsync, long groupWindowMicros) throws IOException {
+    this.list = new SkipList<K, V>(comparator);
+    this.keys = keys;
+    this.values = values;
+    this.path = path;
+    this.snapshot = path.resolveSibling(path.getFileName() + ".snapshot");
+    this.fsync = fsync;
+    this.groupWindowNanos = groupWindowMicros * 1000;
+    if (Files.exists(this.snapshot)) {
+      SkipListSnapshot.read(this.list, keys, values, this.snapshot);
+    } // if
+    this.log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      this.replay();
+    } catch (IOException | RuntimeException e) {
+      this.log.close();
+      throw e;
+    } // try/catch
+  } // DurableSkipList(Path, Comparator<K>, Codec<K>, Codec<V>, boolean, long)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key, returning once the change is in the log.
+   *
+   * @return the previous value associated with key (or null, if there's no such value)
+   * @throws UncheckedIOException if the log cannot be written.
+   * @throws IllegalStateException if the list is closed.
+   */
+  @Override
+  public V set(K key, V value) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    V old;
+    long seq;
+    this.lock.writeLock().lock();
+    try {
+      this.checkWritable();
+      int mark = this.append(SET, key, value);
+      try {
+        old = this.list.set(key, value);
+      } catch (RuntimeException e) {
+        this.pending.position(mark);
+        throw e;
+      } // try/catch
+      seq = ++this.appended;
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+    this.commit(seq);
+    return old;
+  } // set(K, V)
+
+  @Override
+  public V get(K key) {
+    this.lock.readLock().lock();
+    try {
+      return this.list.get(key);
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+  } // get(K)
+
+  @Override
+  public int size() {
+    this.lock.readLock().lock();
+    try {
+      return this.list.size();
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    this.lock.readLock().lock();
+    try {
+      return this.list.containsKey(key);
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+  } // containsKey(K)
+
+  /**
+   * Remove the value with the given key, returning once the change is in the log.
+   *
+   * @return The associated value (or null, if there is no associated value).
+   * @throws UncheckedIOException if the log cannot be written.
+   * @throws IllegalStateException if the list is closed.
+   */
+  @Override
+  public V remove(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    V old;
+    long seq;
+    this.lock.writeLock().lock();
+    try {
+      this.checkWritable();
+      if (!this.list.containsKey(key)) {
+        return null;
+      } // if there is nothing to log
+      this.append(REMOVE, key, null);
+      old = this.list.remove(key);
+      seq = ++this.appended;
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+    this.commit(seq);
+    return old;
+  } // remove(K)
+
+  /**
+   * Get an iterator for a copy of the keys, taken under the read lock.
+   */
+  @Override
+  public Iterator<K> keys() {
+    ArrayList<K> copy = new ArrayList<K>();
+    this.lock.readLock().lock();
+    try {
+      this.list.keys().forEachRemaining(copy::add);
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+    return copy.iterator();
+  } // keys()
+
+  /**
+   * Get an iterator for a copy of the values, taken under the read lock.
+   */
+  @Override
+  public Iterator<V> values() {
+    ArrayList<V> copy = new ArrayList<V>();
+    this.lock.readLock().lock();
+    try {
+      this.list.values().forEachRemaining(copy::add);
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+    return copy.iterator();
+  } // values()
+
+  /**
+   * Apply a function to each key/value pair, under the read lock, so writers wait until it is
+   * done.
+   */
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    this.lock.readLock().lock();
+    try {
+      this.list.forEach(action);
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+  } // forEach(BiConsumer)
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Write a snapshot of the list next to the log and empty the log, so that the next open
+   * replays nothing. Readers continue meanwhile; writers wait.
+   */
+  public void checkpoint() throws IOException {
+    this.lead();
+    IOException error = null;
+    this.lock.readLock().lock();
+    // Read under the lock: a change appended after it is released is in neither the snapshot
+    // nor the truncated log, so it must not be marked durable here.
+    long last = this.appended;
+    try {
+      Path temp = this.snapshot.resolveSibling(this.snapshot.getFileName() + ".tmp");
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        SkipListSnapshot.write(this.list, this.keys, this.values, true, out);
+        out.force(true);
+      } // try
+      Files.move(temp, this.snapshot, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      // The snapshot holds every change so far, including those still pending.
+      this.log.truncate(HEADER_SIZE);
+      this.log.position(HEADER_SIZE);
+      this.log.force(true);
+      this.pending.clear();
+    } catch (IOException e) {
+      error = e;
+    } finally {
+      this.lock.readLock().unlock();
+      this.finish(last, error);
+    } // try/finally
+    if (error != null) {
+      throw error;
+    } // if
+  } // checkpoint()
+
+  /**
+   * Commit whatever is pending and close the log.
+   */
+  @Override
+  public void close() throws IOException {
+    long seq;
+    this.lock.writeLock().lock();
+    try {
+      synchronized (this.commitLock) {
+        if (this.closed) {
+          return;
+        } // if
+        this.closed = true;
+      } // synchronized
+      seq = this.appended;
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+    try {
+      this.commit(seq);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      this.log.close();
+    } // try/catch/finally
+  } // close()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make sure the log can take another change. Called with the write lock.
+   */
+  void checkWritable() {
+    synchronized (this.commitLock) {
+      if (this.closed) {
+        throw new IllegalStateException("closed");
+      } else if (this.failure != null) {
+        throw new UncheckedIOException("the log failed", this.failure);
+      } // if/else
+    } // synchronized
+  } // checkWritable()
+
+  /**
+   * Add a record to the pending batch. Called with the write lock.
+   *
+   * @return the position of the record in the batch
+   */
+  int append(byte op, K key, V value) {
+    while (true) {
+      int start = this.pending.position();
+      try {
+        this.pending.putInt(0).putInt(0).put(op);
+        SkipListSnapshot.encode(this.keys, key, this.pending);
+        if (op == SET) {
+          SkipListSnapshot.encode(this.values, value, this.pending);
+        } // if
+        int length = this.pending.position() - start - RECORD_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(this.pending.array(), start + RECORD_HEADER_SIZE, length);
+        this.pending.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+        return start;
+      } catch (BufferOverflowException e) {
+        this.pending.position(start);
+        ByteBuffer bigger = ByteBuffer.allocate(2 * this.pending.capacity());
+        this.pending.flip();
+        bigger.put(this.pending);
+        this.pending = bigger;
+      } catch (RuntimeException | Error e) {
+        // Drop the partial record, or replay would take it for a torn tail and cut off the
+        // records after it.
+        this.pending.position(start);
+        throw e;
+      } // try/catch
+    } // while
+  } // append(byte, K, V)
+
+  /**
+   * Wait until record seq is in the log, writing the log if no other writer is.
+   *
+   * @throws UncheckedIOException if the log cannot be written.
+   */
+  void commit(long seq) {
+    synchronized (this.commitLock) {
+      while (this.durable < seq && this.committing && this.failure == null) {
+        try {
+          this.commitLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("interrupted while committing", e);
+        } // try/catch
+      } // while
+      if (this.failure != null) {
+        throw new UncheckedIOException("the log failed", this.failure);
+      } else if (this.durable >= seq) {
+        return;
+      } // if/else
+      this.committing = true;
+    } // synchronized
+    if (this.groupWindowNanos > 0) {
+      LockSupport.parkNanos(this.groupWindowNanos);
+    } // if
+    ByteBuffer batch;
+    long last;
+    this.lock.writeLock().lock();
+    try {
+      batch = this.pending;
+      last = this.appended;
+      this.pending = this.spare;
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+    IOException error = null;
+    try {
+      batch.flip();
+      while (batch.hasRemaining()) {
+        this.log.write(batch);
+      } // while
+      if (this.fsync) {
+        this.log.force(false);
+      } // if
+    } catch (IOException e) {
+      error = e;
+    } // try/catch
+    batch.clear();
+    this.spare = batch;
+    this.finish(last, error);
+    if (error != null) {
+      throw new UncheckedIOException("the log failed", error);
+    } // if
+  } // commit(long)
+
+  /**
+   * Become the only writer of the log, waiting for the current one to finish.
+   */
+  void lead() throws IOException {
+    synchronized (this.commitLock) {
+      while (this.committing) {
+        try {
+          this.commitLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted", e);
+        } // try/catch
+      } // while
+      if (this.closed) {
+        throw new IllegalStateException("closed");
+      } // if
+      this.committing = true;
+    } // synchronized
+  } // lead()
+
+  /**
+   * Stop writing the log, now that records up to last are in it (unless error is not null),
+   * and wake the writers that are waiting.
+   */
+  void finish(long last, IOException error) {
+    synchronized (this.commitLock) {
+      if (error != null) {
+        this.failure = error;
+      } else {
+        this.durable = Math.max(this.durable, last);
+      } // if/else
+      this.committing = false;
+      this.commitLock.notifyAll();
+    } // synchronized
+  } // finish(long, IOException)
+
+  /**
+   * Apply the records in the log to the list, cut off a torn or corrupt tail, and leave the log
+   * positioned for appending. A new log gets its header.
+   */
+  void replay() throws IOException {
+    if (this.log.size() < HEADER_SIZE) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+      header.flip();
+      this.log.truncate(0);
+      this.log.write(header, 0);
+      this.log.force(true);
+      this.log.position(HEADER_SIZE);
+      return;
+    } // if
+    this.log.position(0);
+    SkipListSnapshot.Reader reader = new SkipListSnapshot.Reader(this.log);
+    ByteBuffer buffer = reader.require(HEADER_SIZE);
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IOException(this.path + " is not a version " + VERSION + " skip list log");
+    } // if
+    long end = HEADER_SIZE;
+    CRC32 crc = new CRC32();
+    try {
+      while (true) {
+        buffer = reader.require(RECORD_HEADER_SIZE);
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < 1 || end + RECORD_HEADER_SIZE + length > this.log.size()) {
+          break;
+        } // if the length is garbage
+        buffer = reader.require(length);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        if ((int) crc.getValue() != checksum) {
+          break;
+        } // if
+        ByteBuffer body = buffer.slice();
+        body.limit(length);
+        buffer.position(buffer.position() + length);
+        this.apply(body);
+        end += RECORD_HEADER_SIZE + length;
+      } // while
+    } catch (EOFException e) {
+      // The last record was torn.
+    } // try/catch
+    if (end < this.log.size()) {
+      this.log.truncate(end);
+      this.log.force(true);
+    } // if
+    this.log.position(end);
+  } // replay()
+
+  /**
+   * Apply the body of one record to the list.
+   */
+  void apply(ByteBuffer body) {
+    byte op = body.get();
+    K key = SkipListSnapshot.decode(this.keys, body);
+    if (op == SET) {
+      this.list.set(key, SkipListSnapshot.decode(this.values, body));
+    } else {
+      this.list.remove(key);
+    } // if/else
+  } // apply(ByteBuffer)
+} // DurableSkipList<K, V>
@@ -0,0 +1,225 @@
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides which entry a SkipListCache evicts when it is over its limit. The cache tells the
+ * policy about every entry that is added, read, overwritten or removed, and the policy keeps the
+ * entries in its own order, linked through their prev and next fields so that each call is O(1).
+ * A policy belongs to one cache.
+ */
+public interface EvictionPolicy<K, V> {
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Evict the entry read or written least recently.
+   */
+  public static <K, V> EvictionPolicy<K, V> lru() {
+    return new Lru<K, V>();
+  } // lru()
+
+  /**
+   * Evict the entry read or written least often, and of those the least recently.
+   */
+  public static <K, V> EvictionPolicy<K, V> lfu() {
+    return new Lfu<K, V>();
+  } // lfu()
+
+  /**
+   * Expire entries ttl after they were last written, and evict the one written longest ago.
+   */
+  public static <K, V> EvictionPolicy<K, V> ttl(long ttl, TimeUnit unit) {
+    return new Ttl<K, V>(unit.toNanos(ttl), System::nanoTime);
+  } // ttl(long, TimeUnit)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start tracking a new entry.
+   */
+  public void added(SkipListCache.Entry<K, V> entry);
+
+  /**
+   * Note that an entry was read.
+   */
+  public void accessed(SkipListCache.Entry<K, V> entry);
+
+  /**
+   * Note that an entry was given a new value. By default, this is an access.
+   */
+  public default void updated(SkipListCache.Entry<K, V> entry) {
+    this.accessed(entry);
+  } // updated(Entry)
+
+  /**
+   * Stop tracking an entry.
+   */
+  public void removed(SkipListCache.Entry<K, V> entry);
+
+  /**
+   * Get the entry to evict next (or null, if there are none). It must be expired if any is.
+   */
+  public SkipListCache.Entry<K, V> victim();
+
+  /**
+   * Determine whether an entry has expired. By default, none do.
+   */
+  public default boolean expired(SkipListCache.Entry<K, V> entry) {
+    return false;
+  } // expired(Entry)
+
+  // +-----------------+---------------------------------------------
+  // | Implementations |
+  // +-----------------+
+
+  /**
+   * Keeps the entries from least to most recently used.
+   */
+  static class Lru<K, V> implements EvictionPolicy<K, V> {
+    /**
+     * The sentinel of the circular list of entries.
+     */
+    final SkipListCache.Entry<K, V> head = SkipListCache.Entry.sentinel();
+
+    @Override
+    public void added(SkipListCache.Entry<K, V> entry) {
+      entry.linkAfter(this.head.prev);
+    } // added(Entry)
+
+    @Override
+    public void accessed(SkipListCache.Entry<K, V> entry) {
+      entry.unlink();
+      entry.linkAfter(this.head.prev);
+    } // accessed(Entry)
+
+    @Override
+    public void removed(SkipListCache.Entry<K, V> entry) {
+      entry.unlink();
+    } // removed(Entry)
+
+    @Override
+    public SkipListCache.Entry<K, V> victim() {
+      return (this.head.next == this.head) ? null : this.head.next;
+    } // victim()
+  } // Lru<K, V>
+
+  /**
+   * Keeps the entries ordered by when they were written, so the first to expire comes first.
+   */
+  static class Ttl<K, V> extends Lru<K, V> {
+    /**
+     * How long an entry lives, in nanoseconds.
+     */
+    final long ttl;
+
+    /**
+     * The time, in nanoseconds.
+     */
+    final LongSupplier clock;
+
+    /**
+     * Expire entries ttl nanoseconds after they are written, by clock.
+     */
+    Ttl(long ttl, LongSupplier clock) {
+      this.ttl = ttl;
+      this.clock = clock;
+    } // Ttl(long, LongSupplier)
+
+    @Override
+    public void added(SkipListCache.Entry<K, V> entry) {
+      entry.stamp = this.clock.getAsLong();
+      super.added(entry);
+    } // added(Entry)
+
+    @Override
+    public void accessed(SkipListCache.Entry<K, V> entry) {
+      // Reading an entry does not extend its life.
+    } // accessed(Entry)
+
+    @Override
+    public void updated(SkipListCache.Entry<K, V> entry) {
+      entry.stamp = this.clock.getAsLong();
+      super.accessed(entry);
+    } // updated(Entry)
+
+    @Override
+    public boolean expired(SkipListCache.Entry<K, V> entry) {
+      return this.clock.getAsLong() - entry.stamp >= this.ttl;
+    } // expired(Entry)
+  } // Ttl<K, V>
+
+  /**
+   * Keeps the entries in one list, ordered by how often they were used and then by how recently,
+   * and remembers where each run of equal counts ends, so that an access moves an entry from the
+   * end of its run to the end of the next one.
+   */
+  static class Lfu<K, V> implements EvictionPolicy<K, V> {
+    /**
+     * The sentinel of the circular list of entries.
+     */
+    final SkipListCache.Entry<K, V> head = SkipListCache.Entry.sentinel();
+
+    /**
+     * The last entry with each count.
+     */
+    final HashMap<Integer, SkipListCache.Entry<K, V>> tails =
+        new HashMap<Integer, SkipListCache.Entry<K, V>>();
+
+    @Override
+    public void added(SkipListCache.Entry<K, V> entry) {
+      entry.count = 1;
+      SkipListCache.Entry<K, V> tail = this.tails.get(1);
+      entry.linkAfter((tail == null) ? this.head : tail);
+      this.tails.put(1, entry);
+    } // added(Entry)
+
+    @Override
+    public void accessed(SkipListCache.Entry<K, V> entry) {
+      int count = entry.count;
+      SkipListCache.Entry<K, V> prev = this.detach(entry);
+      if (entry.count < Integer.MAX_VALUE) {
+        entry.count++;
+      } // if
+      // The run for the new count, if there is one, directly follows the run for the old one.
+      SkipListCache.Entry<K, V> after = this.tails.get(entry.count);
+      if (after == null && entry.count != count) {
+        after = this.tails.get(count);
+      } // if
+      entry.linkAfter((after == null) ? prev : after);
+      this.tails.put(entry.count, entry);
+    } // accessed(Entry)
+
+    @Override
+    public void removed(SkipListCache.Entry<K, V> entry) {
+      this.detach(entry);
+    } // removed(Entry)
+
+    @Override
+    public SkipListCache.Entry<K, V> victim() {
+      return (this.head.next == this.head) ? null : this.head.next;
+    } // victim()
+
+    /**
+     * Unlink an entry, and end its run at its predecessor if it was the last.
+     *
+     * @return its predecessor
+     */
+    SkipListCache.Entry<K, V> detach(SkipListCache.Entry<K, V> entry) {
+      SkipListCache.Entry<K, V> prev = entry.prev;
+      if (this.tails.get(entry.count) == entry) {
+        if (prev != this.head && prev.count == entry.count) {
+          this.tails.put(entry.count, prev);
+        } else {
+          this.tails.remove(entry.count);
+        } // if/else
+      } // if
+      entry.unlink();
+      return prev;
+    } // detach(Entry)
+  } // Lfu<K, V>
+} // EvictionPolicy<K, V>
@@ -0,0 +1,269 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SkipListMetrics that keep totals and a histogram of hops for each operation, and a histogram
+ * of the heights of the nodes allocated. Recording is thread safe and takes no locks, so one
+ * instance can be shared by several lists and read while they run.
+ */
+public class HistogramMetrics implements SkipListMetrics {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of hop buckets. Searches with more hops than this go in the last bucket.
+   */
+  static final int HOP_BUCKETS = 256;
+
+  /**
+   * The number of height buckets, one for each possible height.
+   */
+  static final int HEIGHT_BUCKETS = SkipList.MAX_HEIGHT + 1;
+
+  /**
+   * The number of operations.
+   */
+  static final int OPERATIONS = Operation.values().length;
+
+  /**
+   * Positions of the totals for each operation in this.totals.
+   */
+  static final int COUNT = 0;
+  static final int HOPS = 1;
+  static final int LEVELS = 2;
+  static final int COMPARISONS = 3;
+  static final int TOTALS = 4;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The count, hops, levels and comparisons of each operation, TOTALS to an operation.
+   */
+  final AtomicLongArray totals = new AtomicLongArray(OPERATIONS * TOTALS);
+
+  /**
+   * How many searches of each operation took each number of hops, HOP_BUCKETS to an operation.
+   */
+  final AtomicLongArray hops = new AtomicLongArray(OPERATIONS * HOP_BUCKETS);
+
+  /**
+   * How many nodes of each height were allocated.
+   */
+  final AtomicLongArray heights = new AtomicLongArray(HEIGHT_BUCKETS);
+
+  // +-------------------------+-------------------------------------
+  // | SkipListMetrics methods |
+  // +-------------------------+
+
+  @Override
+  public void searched(Operation op, int hops, int levels, int comparisons) {
+    int base = op.ordinal() * TOTALS;
+    this.totals.incrementAndGet(base + COUNT);
+    this.totals.addAndGet(base + HOPS, hops);
+    this.totals.addAndGet(base + LEVELS, levels);
+    this.totals.addAndGet(base + COMPARISONS, comparisons);
+    this.hops.incrementAndGet(op.ordinal() * HOP_BUCKETS + Math.min(hops, HOP_BUCKETS - 1));
+  } // searched(Operation, int, int, int)
+
+  @Override
+  public void allocated(int height) {
+    this.heights.incrementAndGet(Math.min(height, HEIGHT_BUCKETS - 1));
+  } // allocated(int)
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Copy the current counts. Counts recorded while the copy is made may be only partly included.
+   */
+  public Snapshot snapshot() {
+    long[] totals = new long[this.totals.length()];
+    for (int i = 0; i < totals.length; i++) {
+      totals[i] = this.totals.get(i);
+    } // for
+    long[] hops = new long[this.hops.length()];
+    for (int i = 0; i < hops.length; i++) {
+      hops[i] = this.hops.get(i);
+    } // for
+    long[] heights = new long[this.heights.length()];
+    for (int i = 0; i < heights.length; i++) {
+      heights[i] = this.heights.get(i);
+    } // for
+    return new Snapshot(totals, hops, heights);
+  } // snapshot()
+
+  /**
+   * Zero every count.
+   */
+  public void reset() {
+    for (int i = 0; i < this.totals.length(); i++) {
+      this.totals.set(i, 0);
+    } // for
+    for (int i = 0; i < this.hops.length(); i++) {
+      this.hops.set(i, 0);
+    } // for
+    for (int i = 0; i < this.heights.length(); i++) {
+      this.heights.set(i, 0);
+    } // for
+  } // reset()
+
+  // +----------------+----------------------------------------------
+  // | Snapshot class |
+  // +----------------+
+
+  /**
+   * The counts of a HistogramMetrics at one moment.
+   */
+  public static class Snapshot {
+    /**
+     * The totals, laid out as in HistogramMetrics.
+     */
+    final long[] totals;
+
+    /**
+     * The hop histograms, laid out as in HistogramMetrics.
+     */
+    final long[] hops;
+
+    /**
+     * The height histogram.
+     */
+    final long[] heights;
+
+    /**
+     * Wrap copies of the counts.
+     */
+    Snapshot(long[] totals, long[] hops, long[] heights) {
+      this.totals = totals;
+      this.hops = hops;
+      this.heights = heights;
+    } // Snapshot(long[], long[], long[])
+
+    /**
+     * Determine how many searches op made.
+     */
+    public long count(Operation op) {
+      return this.total(op, COUNT);
+    } // count(Operation)
+
+    /**
+     * Get the mean number of hops per search of op (or 0, if there were none).
+     */
+    public double meanHops(Operation op) {
+      return this.mean(op, HOPS);
+    } // meanHops(Operation)
+
+    /**
+     * Get the mean number of levels visited per search of op (or 0, if there were none).
+     */
+    public double meanLevels(Operation op) {
+      return this.mean(op, LEVELS);
+    } // meanLevels(Operation)
+
+    /**
+     * Get the mean number of comparisons per search of op (or 0, if there were none).
+     */
+    public double meanComparisons(Operation op) {
+      return this.mean(op, COMPARISONS);
+    } // meanComparisons(Operation)
+
+    /**
+     * Get the smallest number of hops that at least fraction q of the searches of op took no more
+     * than (or 0, if there were none).
+     */
+    public int hopPercentile(Operation op, double q) {
+      long count = this.count(op);
+      if (count == 0) {
+        return 0;
+      } // if
+      long rank = Math.max((long) Math.ceil(q * count), 1);
+      int base = op.ordinal() * HOP_BUCKETS;
+      long seen = 0;
+      for (int h = 0; h < HOP_BUCKETS; h++) {
+        seen += this.hops[base + h];
+        if (seen >= rank) {
+          return h;
+        } // if
+      } // for
+      return HOP_BUCKETS - 1;
+    } // hopPercentile(Operation, double)
+
+    /**
+     * Get a copy of the histogram of hops for op: element h is the number of searches that took
+     * h hops, and the last element also counts every longer search.
+     */
+    public long[] hopHistogram(Operation op) {
+      long[] histogram = new long[HOP_BUCKETS];
+      System.arraycopy(this.hops, op.ordinal() * HOP_BUCKETS, histogram, 0, HOP_BUCKETS);
+      return histogram;
+    } // hopHistogram(Operation)
+
+    /**
+     * Determine how many nodes were allocated.
+     */
+    public long nodesAllocated() {
+      long sum = 0;
+      for (long count : this.heights) {
+        sum += count;
+      } // for
+      return sum;
+    } // nodesAllocated()
+
+    /**
+     * Get a copy of the height histogram: element h is the number of nodes allocated with
+     * height h.
+     */
+    public long[] heightHistogram() {
+      return this.heights.clone();
+    } // heightHistogram()
+
+    /**
+     * Flatten the snapshot into named numbers, such as "get.count", "get.hops.mean",
+     * "get.hops.p99", "nodes.allocated" and "nodes.height.3", for export to a monitoring system.
+     * Operations with no searches and heights with no nodes are left out.
+     */
+    public Map<String, Number> toMap() {
+      Map<String, Number> map = new LinkedHashMap<String, Number>();
+      for (Operation op : Operation.values()) {
+        if (this.count(op) == 0) {
+          continue;
+        } // if
+        String name = op.name().toLowerCase();
+        map.put(name + ".count", this.count(op));
+        map.put(name + ".hops.mean", this.meanHops(op));
+        map.put(name + ".hops.p50", this.hopPercentile(op, 0.50));
+        map.put(name + ".hops.p99", this.hopPercentile(op, 0.99));
+        map.put(name + ".levels.mean", this.meanLevels(op));
+        map.put(name + ".comparisons.mean", this.meanComparisons(op));
+      } // for
+      map.put("nodes.allocated", this.nodesAllocated());
+      for (int h = 0; h < this.heights.length; h++) {
+        if (this.heights[h] != 0) {
+          map.put("nodes.height." + h, this.heights[h]);
+        } // if
+      } // for
+      return map;
+    } // toMap()
+
+    /**
+     * Get one of the totals of op.
+     */
+    long total(Operation op, int which) {
+      return this.totals[op.ordinal() * TOTALS + which];
+    } // total(Operation, int)
+
+    /**
+     * Get one of the totals of op divided by its count.
+     */
+    double mean(Operation op, int which) {
+      long count = this.count(op);
+      return (count == 0) ? 0 : (double) this.total(op, which) / count;
+    } // mean(Operation, int)
+  } // Snapshot
+} // HistogramMetrics
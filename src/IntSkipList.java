@@ -0,0 +1,274 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A skip list whose keys are unboxed ints, compared inline rather than through a Comparator.
+ */
+public class IntSkipList<V> implements IntSimpleMap<V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The initial height of the skip list.
+   */
+  static final int INITIAL_HEIGHT = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * A sentinel node whose links are the pointers to all the front elements.
+   */
+  SLNode<V> head;
+
+  /**
+   * Scratch space for the predecessors found by the most recent search.
+   */
+  SLNode<V>[] update;
+
+  /**
+   * The number of values in the list.
+   */
+  int size;
+
+  /**
+   * The current height of the skiplist.
+   */
+  int height;
+
+  /**
+   * The probability used to determine the height of nodes.
+   */
+  double prob = 0.5;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, skip list.
+   */
+  public IntSkipList() {
+    this.head = new SLNode<V>(0, null, INITIAL_HEIGHT);
+    this.update = newTower(INITIAL_HEIGHT);
+    this.size = 0;
+    this.height = INITIAL_HEIGHT;
+  } // IntSkipList()
+
+  // +----------------------+----------------------------------------
+  // | IntSimpleMap methods |
+  // +----------------------+
+
+  @Override
+  public V set(int key, V value) {
+    SLNode<V>[] nodes = this.predecessors(key);
+    SLNode<V> next = nodes[0].next[0];
+    if (next != null && next.key == key) {
+      V val = next.value;
+      next.value = value;
+      return val;
+    } // If the list contains key, update the value
+
+    int h = randomHeight();
+    if (h > this.height) {
+      this.grow(h);
+      nodes = this.update;
+    } // if
+    SLNode<V> node = new SLNode<V>(key, value, h);
+    for (int level = 0; level < h; level++) {
+      node.next[level] = nodes[level].next[level];
+      nodes[level].next[level] = node;
+    } // for
+    this.size++;
+    return null;
+  } // set(int, V)
+
+  @Override
+  public V get(int key) {
+    SLNode<V> node = this.find(key);
+    if (node == null) {
+      throw new IndexOutOfBoundsException("invalid key");
+    } // if
+    return node.value;
+  } // get(int)
+
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  @Override
+  public boolean containsKey(int key) {
+    return this.find(key) != null;
+  } // containsKey(int)
+
+  @Override
+  public V remove(int key) {
+    if (this.size == 0) {
+      return null;
+    } // if
+    SLNode<V>[] nodes = this.predecessors(key);
+    SLNode<V> node = nodes[0].next[0];
+    if (node == null || node.key != key) {
+      return null;
+    } // if the key is not in the list
+    for (int level = 0; level < node.next.length; level++) {
+      nodes[level].next[level] = node.next[level];
+    } // for
+    this.size--;
+    return node.value;
+  } // remove(int)
+
+  @Override
+  public PrimitiveIterator.OfInt keys() {
+    return new PrimitiveIterator.OfInt() {
+      SLNode<V> next = IntSkipList.this.head.next[0];
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public int nextInt() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        int key = this.next.key;
+        this.next = this.next.next[0];
+        return key;
+      } // nextInt()
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    return new Iterator<V>() {
+      SLNode<V> next = IntSkipList.this.head.next[0];
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public V next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        V value = this.next.value;
+        this.next = this.next.next[0];
+        return value;
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(EntryConsumer<? super V> action) {
+    for (SLNode<V> node = this.head.next[0]; node != null; node = node.next[0]) {
+      action.accept(node.key, node.value);
+    } // for
+  } // forEach(EntryConsumer)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Pick a random height for a new node.
+   */
+  int randomHeight() {
+    return SkipList.randomHeight(this.prob);
+  } // randomHeight()
+
+  /**
+   * Find the node that holds key in a single descent.
+   */
+  SLNode<V> find(int key) {
+    SLNode<V> cur = this.head;
+    for (int level = this.height - 1; level > -1; level--) {
+      SLNode<V> next = cur.next[level];
+      while (next != null && next.key <= key) {
+        if (next.key == key) {
+          return next;
+        } // if
+        cur = next;
+        next = cur.next[level];
+      } // while
+    } // for
+    return null;
+  } // find(int)
+
+  /**
+   * Record in this.update the last node before key on each level.
+   */
+  SLNode<V>[] predecessors(int key) {
+    SLNode<V>[] nodes = this.update;
+    SLNode<V> cur = this.head;
+    for (int level = this.height - 1; level > -1; level--) {
+      SLNode<V> next = cur.next[level];
+      while (next != null && next.key < key) {
+        cur = next;
+        next = cur.next[level];
+      } // while
+      nodes[level] = cur;
+    } // for
+    return nodes;
+  } // predecessors(int)
+
+  /**
+   * Raise the list to height h.
+   */
+  void grow(int h) {
+    if (h > this.update.length) {
+      this.update = Arrays.copyOf(this.update, Math.max(h, 2 * this.update.length));
+    } // if
+    this.head.next = Arrays.copyOf(this.head.next, Math.max(h, this.head.next.length));
+    for (int level = this.height; level < h; level++) {
+      this.update[level] = this.head;
+    } // for
+    this.height = h;
+  } // grow(int)
+
+  /**
+   * Create an array that can hold a tower of n links.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <V> SLNode<V>[] newTower(int n) {
+    return (SLNode<V>[]) new SLNode[n];
+  } // newTower(int)
+
+  /**
+   * Nodes in the skip list.
+   */
+  static class SLNode<V> {
+    /**
+     * The key.
+     */
+    int key;
+
+    /**
+     * The value.
+     */
+    V value;
+
+    /**
+     * Pointers to the next nodes.
+     */
+    SLNode<V>[] next;
+
+    /**
+     * Create a new node of height n with the specified key and value.
+     */
+    SLNode(int key, V value, int n) {
+      this.key = key;
+      this.value = value;
+      this.next = newTower(n);
+    } // SLNode(int, V, int)
+  } // SLNode<V>
+} // IntSkipList<V>
@@ -0,0 +1,63 @@
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+
+/**
+ * A version of SimpleMap whose keys are unboxed longs.
+ */
+public interface LongSimpleMap<V> {
+  /**
+   * Set the value associated with key.
+   *
+   * @return the previous value associated with key (or null, if there's no
+   *         such value)
+   */
+  public V set(long key, V value);
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the map.
+   */
+  public V get(long key);
+
+  /**
+   * Determine how many values are in the map.
+   */
+  public int size();
+
+  /**
+   * Determine if a key appears in the table.
+   */
+  public boolean containsKey(long key);
+
+  /**
+   * Remove the value with the given key.
+   *
+   * @return The associated value (or null, if there is no associated value).
+   */
+  public V remove(long key);
+
+  /**
+   * Get an iterator for all of the keys in the map.
+   */
+  public PrimitiveIterator.OfLong keys();
+
+  /**
+   * Get an iterator for all of the values in the map.
+   */
+  public Iterator<V> values();
+
+  /**
+   * Apply a function to each key/value pair.
+   */
+  public void forEach(EntryConsumer<? super V> action);
+
+  /**
+   * An action on an unboxed key and its value.
+   */
+  @FunctionalInterface
+  public interface EntryConsumer<V> {
+    public void accept(long key, V value);
+  } // EntryConsumer<V>
+
+} // LongSimpleMap
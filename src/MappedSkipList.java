@@ -0,0 +1,451 @@
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * A read-only skip list that is searched in place in a memory-mapped file. Opening one maps the
+ * file and reads its header, whatever its size, and nothing is copied to the heap: a search
+ * decodes only the keys it compares.
+ *
+ * The file stores the towers of a SkipList level by level. Level 0 holds every entry, in order,
+ * as a key and a value; each higher level holds the keys of the nodes that reach it, in order,
+ * each followed by the offset of the same node's entry one level down. Moving right along a
+ * level is moving to the next entry in the file, so a search reads a short stretch of each level
+ * -- about 1/prob entries, usually within one page -- and touches O(log n) pages in all.
+ *
+ * The file starts with a header: the magic number, the version, the number of levels, the number
+ * of entries, and the start and end offset of each level. Keys and values are encoded as in
+ * SkipListSnapshot. A mapping is limited to 2 GiB.
+ */
+public class MappedSkipList<K, V> implements SimpleMap<K, V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of a mapped list, "SKMP".
+   */
+  static final int MAGIC = 0x534B4D50;
+
+  /**
+   * The version of the format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The size of the header before the level offsets: magic, version, height and count.
+   */
+  static final int HEADER_SIZE = 20;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file. Each operation reads a duplicate, so threads may share it.
+   */
+  final MappedByteBuffer file;
+
+  /**
+   * The order of the keys, which must be the one the file was written with.
+   */
+  final Comparator<K> comparator;
+
+  /**
+   * How keys are stored.
+   */
+  final Codec<K> keys;
+
+  /**
+   * How values are stored.
+   */
+  final Codec<V> values;
+
+  /**
+   * The number of levels.
+   */
+  final int height;
+
+  /**
+   * The number of entries.
+   */
+  final int size;
+
+  /**
+   * The offset of the first entry of each level.
+   */
+  final int[] starts;
+
+  /**
+   * The offset just past the last entry of each level.
+   */
+  final int[] ends;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Map a file written by write, whose keys are in the order of comparator.
+   *
+   * @throws IOException if the file is not a mapped skip list or is larger than 2 GiB.
+   */
+  public MappedSkipList(Path path, Comparator<K> comparator, Codec<K> keys, Codec<V> values)
+      throws IOException {
+    this.comparator = comparator;
+    this.keys = keys;
+    this.values = values;
+    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+      long length = in.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException(path + " is too large to map");
+      } else if (length < HEADER_SIZE) {
+        throw new IOException(path + " is not a mapped skip list");
+      } // if/else
+      // The mapping outlives the channel.
+      this.file = in.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    } // try
+    if (this.file.getInt(0) != MAGIC || this.file.getInt(4) != VERSION) {
+      throw new IOException(path + " is not a version " + VERSION + " mapped skip list");
+    } // if
+    this.height = this.file.getInt(8);
+    long count = this.file.getLong(12);
+    if (this.height < 1 || this.height > SkipList.MAX_HEIGHT || count < 0
+        || count > Integer.MAX_VALUE || HEADER_SIZE + 16L * this.height > this.file.limit()) {
+      throw new IOException("corrupt header in " + path);
+    } // if
+    this.size = (int) count;
+    this.starts = new int[this.height];
+    this.ends = new int[this.height];
+    for (int level = 0; level < this.height; level++) {
+      long start = this.file.getLong(HEADER_SIZE + 16 * level);
+      long end = this.file.getLong(HEADER_SIZE + 16 * level + 8);
+      if (start < 0 || start > end || end > this.file.limit()) {
+        throw new IOException("corrupt header in " + path + ": level " + level);
+      } // if
+      this.starts[level] = (int) start;
+      this.ends[level] = (int) end;
+    } // for
+  } // MappedSkipList(Path, Comparator<K>, Codec<K>, Codec<V>)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Write list to a file, replacing it if it exists, keeping the height of every node.
+   *
+   * @return the number of bytes written
+   * @throws IOException if the file cannot be written, or would be larger than the 2 GiB that
+   *         can be mapped. The incomplete file is deleted.
+   */
+  public static <K, V> long write(SkipList<K, V> list, Codec<? super K> keys,
+      Codec<? super V> values, Path file) throws IOException {
+    int height = list.height;
+    long position = HEADER_SIZE + 16L * height;
+    ByteBuffer header = ByteBuffer.allocate((int) position);
+    header.putInt(MAGIC).putInt(VERSION).putInt(height).putLong(list.size);
+    try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      out.position(position);
+      ByteBuffer buffer = ByteBuffer.allocate(SkipListSnapshot.BUFFER_SIZE);
+      // The offsets of the entries, on the level below, of the nodes that reach this level.
+      long[] below = new long[0];
+      for (int level = 0; level < height; level++) {
+        header.putLong(position);
+        long[] offsets = new long[16];
+        int taller = 0;
+        int i = 0;
+        for (SkipList.SLNode<K, V> node = list.head.next[level]; node != null;
+            node = node.next[level], i++) {
+          int start = buffer.position();
+          while (true) {
+            try {
+              SkipListSnapshot.encode(keys, node.key, buffer);
+              if (level == 0) {
+                SkipListSnapshot.encode(values, node.value, buffer);
+              } else {
+                buffer.putLong(below[i]);
+              } // if/else
+              break;
+            } catch (BufferOverflowException e) {
+              buffer.position(start);
+              if (start == 0) {
+                buffer = ByteBuffer.allocate(2 * buffer.capacity());
+              } else {
+                position = mappable(position + SkipListSnapshot.drain(buffer, out), file);
+              } // if/else
+              start = 0;
+            } // try/catch
+          } // while
+          if (node.next.length > level + 1) {
+            if (taller == offsets.length) {
+              offsets = Arrays.copyOf(offsets, 2 * taller);
+            } // if
+            offsets[taller++] = position + start;
+          } // if the node reaches the next level
+        } // for
+        position = mappable(position + SkipListSnapshot.drain(buffer, out), file);
+        header.putLong(position);
+        below = offsets;
+      } // for
+      header.flip();
+      while (header.hasRemaining()) {
+        out.write(header, header.position());
+      } // while
+      return position;
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    } // try/catch
+  } // write(SkipList, Codec, Codec, Path)
+
+  /**
+   * Check that a file of the given length can be mapped.
+   *
+   * @return length
+   */
+  static long mappable(long length, Path file) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException(file + " would be too large to map");
+    } // if
+    return length;
+  } // mappable(long, Path)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Unsupported: the list is read-only.
+   *
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public V set(K key, V value) {
+    throw new UnsupportedOperationException("read-only");
+  } // set(K, V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the map.
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public V get(K key) {
+    ByteBuffer buffer = this.file.duplicate();
+    int at = this.seek(buffer, key);
+    if (at < 0) {
+      throw new IndexOutOfBoundsException("invalid key");
+    } // if
+    this.skip(buffer.position(at));
+    return SkipListSnapshot.decode(this.values, buffer);
+  } // get(K)
+
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    return this.seek(this.file.duplicate(), key) >= 0;
+  } // containsKey(K)
+
+  /**
+   * Unsupported: the list is read-only.
+   *
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public V remove(K key) {
+    throw new UnsupportedOperationException("read-only");
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    Iterator<Map.Entry<K, V>> entries = this.range(null, null);
+    return new Iterator<K>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return entries.next().getKey();
+      } // next()
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    Iterator<Map.Entry<K, V>> entries = this.range(null, null);
+    return new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public V next() {
+        return entries.next().getValue();
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    ByteBuffer buffer = this.file.duplicate();
+    buffer.position(this.starts[0]).limit(this.ends[0]);
+    while (buffer.hasRemaining()) {
+      K key = SkipListSnapshot.decode(this.keys, buffer);
+      action.accept(key, SkipListSnapshot.decode(this.values, buffer));
+    } // while
+  } // forEach(BiConsumer)
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Get an iterator for the entries with lo <= key < hi, in order. It seeks to lo with one
+   * descent and then reads level 0 straight through, stopping at hi. A null bound is unbounded.
+   */
+  public Iterator<Map.Entry<K, V>> range(K lo, K hi) {
+    ByteBuffer buffer = this.file.duplicate();
+    int start = this.starts[0];
+    if (lo != null) {
+      start = this.seek(buffer, lo);
+      if (start < 0) {
+        start = -start - 1;
+      } // if
+    } // if
+    buffer.position(start).limit(this.ends[0]);
+    return new Iterator<Map.Entry<K, V>>() {
+      /**
+       * The entry to return next (or null, if there is none).
+       */
+      Map.Entry<K, V> next = this.advance();
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public Map.Entry<K, V> next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        Map.Entry<K, V> entry = this.next;
+        this.next = this.advance();
+        return entry;
+      } // next()
+
+      /**
+       * Read the next entry, if it is below hi.
+       */
+      Map.Entry<K, V> advance() {
+        if (!buffer.hasRemaining()) {
+          return null;
+        } // if
+        K key = SkipListSnapshot.decode(MappedSkipList.this.keys, buffer);
+        if (hi != null && MappedSkipList.this.comparator.compare(key, hi) >= 0) {
+          buffer.position(buffer.limit());
+          return null;
+        } // if
+        return new AbstractMap.SimpleImmutableEntry<K, V>(key,
+            SkipListSnapshot.decode(MappedSkipList.this.values, buffer));
+      } // advance()
+    };
+  } // range(K, K)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Search for key from the top level down, reading through buffer.
+   *
+   * @return the offset of key's entry on level 0 if it is present; otherwise -(offset) - 1, where
+   *         offset is that of the first entry with a greater key, or the end of level 0
+   * @throws NullPointerException if the key is null.
+   */
+  int seek(ByteBuffer buffer, K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    // Where to start reading the current level: just past the last entry known to be less.
+    int from = this.starts[this.height - 1];
+    // The down link of that entry (or -1, if no entry is known to be less).
+    int down = -1;
+    for (int level = this.height - 1; level > 0; level--) {
+      buffer.position(from);
+      while (buffer.position() < this.ends[level]) {
+        int order = this.comparator.compare(SkipListSnapshot.decode(this.keys, buffer), key);
+        int link = (int) buffer.getLong();
+        if (order == 0) {
+          // The node is found; its own links lead straight down.
+          for (int l = level - 1; l > 0; l--) {
+            link = (int) this.skip(buffer.position(link)).getLong();
+          } // for
+          return link;
+        } else if (order > 0) {
+          break;
+        } // if/else
+        down = link;
+      } // while
+      if (down < 0) {
+        from = this.starts[level - 1];
+      } else {
+        this.skip(buffer.position(down));
+        if (level - 1 > 0) {
+          down = (int) buffer.getLong();
+        } else {
+          this.skip(buffer);
+        } // if/else
+        from = buffer.position();
+      } // if/else
+    } // for
+    buffer.position(from);
+    while (buffer.position() < this.ends[0]) {
+      int at = buffer.position();
+      int order = this.comparator.compare(SkipListSnapshot.decode(this.keys, buffer), key);
+      if (order == 0) {
+        return at;
+      } else if (order > 0) {
+        return -at - 1;
+      } // if/else
+      this.skip(buffer);
+    } // while
+    return -buffer.position() - 1;
+  } // seek(ByteBuffer, K)
+
+  /**
+   * Move past a length-prefixed field without decoding it.
+   *
+   * @return buffer
+   */
+  ByteBuffer skip(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length > 0) {
+      buffer.position(buffer.position() + length);
+    } // if
+    return buffer;
+  } // skip(ByteBuffer)
+} // MappedSkipList<K, V>
@@ -0,0 +1,728 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A skip list used as the write buffer of a store of sorted runs on disk. Writes go to the active
+ * list; once the weight written to it reaches a budget, the active list is frozen, replaced by an
+ * empty one, and flushed in the background to a new SortedRun in a directory. Reads merge the
+ * active list, the frozen lists still waiting to be flushed and the runs, newest first, so a key
+ * written later hides the same key in anything older. Removing a key writes a tombstone, which
+ * hides it in the same way.
+ *
+ * Only flushed entries are on disk: whatever is still in memory is lost if the process dies
+ * without calling flush or close. Opening a directory picks up the runs it already holds.
+ *
+ * Writers hold a write lock only to change the active list (and, if it is full, to swap it).
+ * Readers hold a read lock while they search the active list and then search the frozen lists,
+ * which never change, and the runs without it. If flushing falls MAX_FROZEN lists behind,
+ * writers wait for it. Runs are never merged with each other, so a store that is written for a
+ * long time accumulates many of them.
+ */
+public class MemTable<K, V> implements SimpleMap<K, V>, Closeable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How many frozen lists may wait to be flushed before writers wait too.
+   */
+  static final int MAX_FROZEN = 4;
+
+  /**
+   * What find returns for a key that appears nowhere.
+   */
+  static final Object ABSENT = new Object();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The directory of runs.
+   */
+  final Path dir;
+
+  /**
+   * The order of the keys.
+   */
+  final Comparator<K> comparator;
+
+  /**
+   * How keys are stored.
+   */
+  final Codec<K> keys;
+
+  /**
+   * How values are stored.
+   */
+  final Codec<V> values;
+
+  /**
+   * The weight of an entry written to the active list. The value is null for a tombstone.
+   */
+  final ToIntBiFunction<? super K, ? super V> weigher;
+
+  /**
+   * The weight at which the active list is frozen.
+   */
+  final long budget;
+
+  /**
+   * Flushes frozen lists, one at a time and oldest first.
+   */
+  final ExecutorService flusher;
+
+  /**
+   * Guards the fields below: shared by readers, exclusive to writers and to the flusher as it
+   * installs a run.
+   */
+  final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Signalled when a frozen list has been flushed or a flush has failed.
+   */
+  final Condition flushed = this.lock.writeLock().newCondition();
+
+  /**
+   * The list that takes writes. Values are V or SortedRun.TOMBSTONE.
+   */
+  SkipList<K, Object> active;
+
+  /**
+   * The weight written to the active list.
+   */
+  long weight;
+
+  /**
+   * The frozen lists, newest first. Replaced rather than changed, so readers may keep it.
+   */
+  List<SkipList<K, Object>> frozen = new ArrayList<SkipList<K, Object>>();
+
+  /**
+   * The runs, newest first. Replaced rather than changed, so readers may keep it.
+   */
+  List<SortedRun<K, V>> runs = new ArrayList<SortedRun<K, V>>();
+
+  /**
+   * The number of the next run.
+   */
+  long nextRun;
+
+  /**
+   * The last flush submitted (or a completed future, if there has been none).
+   */
+  Future<?> lastFlush = CompletableFuture.completedFuture(null);
+
+  /**
+   * The error that broke a flush, after which no change is accepted.
+   */
+  IOException failure;
+
+  /**
+   * Whether the table has been closed.
+   */
+  boolean closed;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open the store in dir, freezing the active list once maxEntries writes have gone to it.
+   */
+  public MemTable(Path dir, Comparator<K> comparator, Codec<K> keys, Codec<V> values,
+      int maxEntries) throws IOException {
+    this(dir, comparator, keys, values, (k, v) -> 1, maxEntries);
+  } // MemTable(Path, Comparator<K>, Codec<K>, Codec<V>, int)
+
+  /**
+   * Open the store in dir, creating dir if need be, and freeze the active list once the weights
+   * of the writes to it add up to budget. For a byte budget, weigher estimates the size of an
+   * entry, e.g. (k, v) -> k.length() + (v == null ? 0 : v.length()) for strings.
+   */
+  public MemTable(Path dir, Comparator<K> comparator, Codec<K> keys, Codec<V> values,
+      ToIntBiFunction<? super K, ? super V> weigher, long budget) throws IOException {
+    if (budget < 1) {
+      throw new IllegalArgumentException("budget " + budget + " is not positive");
+    } // if
+    this.dir = dir;
+    this.comparator = comparator;
+    this.keys = keys;
+    this.values = values;
+    this.weigher = weigher;
+    this.budget = budget;
+    this.active = new SkipList<K, Object>(comparator);
+    Files.createDirectories(dir);
+    this.open();
+    this.flusher = Executors.newSingleThreadExecutor((task) -> {
+      Thread thread = new Thread(task, "memtable-flush " + dir);
+      thread.setDaemon(true);
+      return thread;
+    });
+  } // MemTable(Path, Comparator<K>, Codec<K>, Codec<V>, ToIntBiFunction, long)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key. Finding the previous value may read the runs; put
+   * writes without looking.
+   *
+   * @return the previous value associated with key (or null, if there's no such value)
+   * @throws UncheckedIOException if a run cannot be read or a flush has failed.
+   * @throws IllegalStateException if the table is closed.
+   */
+  @Override
+  public V set(K key, V value) {
+    this.lock.writeLock().lock();
+    try {
+      Object old = this.find(key);
+      this.write(key, value, value);
+      return live(old);
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+  } // set(K, V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the map.
+   * @throws NullPointerException if the key is null.
+   * @throws UncheckedIOException if a run cannot be read.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    Object value = this.find(key);
+    if (value == ABSENT || value == SortedRun.TOMBSTONE) {
+      throw new IndexOutOfBoundsException("invalid key");
+    } // if
+    return (V) value;
+  } // get(K)
+
+  /**
+   * Determine how many values are in the map, by merging everything. This takes time linear in
+   * the number of entries written, tombstones included.
+   */
+  @Override
+  public int size() {
+    int size = 0;
+    for (Iterator<Map.Entry<K, V>> entries = this.range(null, null); entries.hasNext(); ) {
+      entries.next();
+      size++;
+    } // for
+    return size;
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    Object value = this.find(key);
+    return value != ABSENT && value != SortedRun.TOMBSTONE;
+  } // containsKey(K)
+
+  /**
+   * Remove the value with the given key. Finding the value may read the runs; delete writes a
+   * tombstone without looking.
+   *
+   * @return The associated value (or null, if there is no associated value).
+   * @throws UncheckedIOException if a run cannot be read or a flush has failed.
+   * @throws IllegalStateException if the table is closed.
+   */
+  @Override
+  public V remove(K key) {
+    this.lock.writeLock().lock();
+    try {
+      Object old = this.find(key);
+      if (old != ABSENT && old != SortedRun.TOMBSTONE) {
+        this.write(key, null, SortedRun.TOMBSTONE);
+      } // if there is something to hide
+      return live(old);
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    Iterator<Map.Entry<K, V>> entries = this.range(null, null);
+    return new Iterator<K>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return entries.next().getKey();
+      } // next()
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    Iterator<Map.Entry<K, V>> entries = this.range(null, null);
+    return new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public V next() {
+        return entries.next().getValue();
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    this.range(null, null).forEachRemaining((entry) ->
+        action.accept(entry.getKey(), entry.getValue()));
+  } // forEach(BiConsumer)
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Set the value associated with key without finding the previous one.
+   *
+   * @throws UncheckedIOException if a flush has failed.
+   * @throws IllegalStateException if the table is closed.
+   */
+  public void put(K key, V value) {
+    this.lock.writeLock().lock();
+    try {
+      this.write(key, value, value);
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+  } // put(K, V)
+
+  /**
+   * Write a tombstone for key, whether or not it is present.
+   *
+   * @throws UncheckedIOException if a flush has failed.
+   * @throws IllegalStateException if the table is closed.
+   */
+  public void delete(K key) {
+    this.lock.writeLock().lock();
+    try {
+      this.write(key, null, SortedRun.TOMBSTONE);
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+  } // delete(K)
+
+  /**
+   * Get an iterator for the entries with lo <= key < hi, in order, merged from the active list,
+   * the frozen lists and the runs. A null bound is unbounded. The active list is copied under
+   * the read lock; everything else is read as the iterator advances.
+   *
+   * @throws UncheckedIOException if a run cannot be read.
+   */
+  public Iterator<Map.Entry<K, V>> range(K lo, K hi) {
+    ArrayList<Iterator<Map.Entry<K, Object>>> sources =
+        new ArrayList<Iterator<Map.Entry<K, Object>>>();
+    List<SkipList<K, Object>> frozen;
+    List<SortedRun<K, V>> runs;
+    this.lock.readLock().lock();
+    try {
+      ArrayList<Map.Entry<K, Object>> copy = new ArrayList<Map.Entry<K, Object>>();
+      this.active.range(lo, hi).forEachRemaining(copy::add);
+      sources.add(copy.iterator());
+      frozen = this.frozen;
+      runs = this.runs;
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+    for (SkipList<K, Object> list : frozen) {
+      sources.add(list.range(lo, hi));
+    } // for
+    for (SortedRun<K, V> run : runs) {
+      sources.add(run.entries(lo));
+    } // for
+    return new Merge(sources, hi);
+  } // range(K, K)
+
+  /**
+   * Freeze the active list, if it holds anything, and wait until every frozen list is in a run.
+   *
+   * @throws IOException if a flush failed.
+   */
+  public void flush() throws IOException {
+    Future<?> last;
+    this.lock.writeLock().lock();
+    try {
+      if (this.failure == null && !this.active.isEmpty()) {
+        this.freeze();
+      } // if
+      last = this.lastFlush;
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+    try {
+      last.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while flushing", e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } // try/catch
+    this.lock.readLock().lock();
+    try {
+      if (this.failure != null) {
+        throw this.failure;
+      } // if
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+  } // flush()
+
+  /**
+   * Flush everything, stop the flusher and close the runs. The table is marked closed before the
+   * final flush, so only one close flushes and no write can slip in after it.
+   */
+  @Override
+  public void close() throws IOException {
+    this.lock.writeLock().lock();
+    try {
+      if (this.closed) {
+        return;
+      } // if
+      this.closed = true;
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+    try {
+      this.flush();
+    } finally {
+      this.flusher.shutdown();
+      for (SortedRun<K, V> run : this.runs) {
+        run.close();
+      } // for
+    } // try/finally
+  } // close()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Open the runs already in the directory and delete any that were left half written.
+   */
+  void open() throws IOException {
+    ArrayList<Long> numbers = new ArrayList<Long>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, "run-*")) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".tmp")) {
+          Files.delete(file);
+        } else {
+          numbers.add(Long.parseLong(name.substring("run-".length())));
+        } // if/else
+      } // for
+    } // try
+    numbers.sort(Comparator.reverseOrder());
+    try {
+      for (long number : numbers) {
+        this.runs.add(new SortedRun<K, V>(this.runFile(number), this.comparator, this.keys,
+            this.values));
+      } // for
+    } catch (IOException | RuntimeException e) {
+      for (SortedRun<K, V> run : this.runs) {
+        run.close();
+      } // for
+      throw e;
+    } // try/catch
+    this.nextRun = numbers.isEmpty() ? 1 : numbers.get(0) + 1;
+  } // open()
+
+  /**
+   * Get the file of the run with a number. Numbers are padded so that names sort in order.
+   */
+  Path runFile(long number) {
+    return this.dir.resolve(String.format("run-%012d", number));
+  } // runFile(long)
+
+  /**
+   * Find key in the active list, the frozen lists and the runs, newest first.
+   *
+   * @return the value, SortedRun.TOMBSTONE, or ABSENT
+   * @throws NullPointerException if the key is null.
+   */
+  Object find(K key) {
+    List<SkipList<K, Object>> frozen;
+    List<SortedRun<K, V>> runs;
+    this.lock.readLock().lock();
+    try {
+      SkipList.SLNode<K, Object> node = this.active.find(key, SkipListMetrics.Operation.GET);
+      if (node != null) {
+        return node.value;
+      } // if
+      frozen = this.frozen;
+      runs = this.runs;
+    } finally {
+      this.lock.readLock().unlock();
+    } // try/finally
+    for (SkipList<K, Object> list : frozen) {
+      SkipList.SLNode<K, Object> node = list.find(key, SkipListMetrics.Operation.GET);
+      if (node != null) {
+        return node.value;
+      } // if
+    } // for
+    try {
+      for (SortedRun<K, V> run : runs) {
+        Map.Entry<K, Object> entry = run.lookup(key);
+        if (entry != null) {
+          return entry.getValue();
+        } // if
+      } // for
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+    return ABSENT;
+  } // find(K)
+
+  /**
+   * Turn what find returned into what set and remove return.
+   */
+  @SuppressWarnings("unchecked")
+  static <V> V live(Object value) {
+    return (value == ABSENT || value == SortedRun.TOMBSTONE) ? null : (V) value;
+  } // live(Object)
+
+  /**
+   * Write stored, which is value or SortedRun.TOMBSTONE, to the active list, and freeze the list
+   * if that fills it. Called with the write lock.
+   */
+  void write(K key, V value, Object stored) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } else if (this.closed) {
+      throw new IllegalStateException("closed");
+    } else if (this.failure != null) {
+      throw new UncheckedIOException("a flush failed", this.failure);
+    } // if/else
+    this.active.set(key, stored);
+    this.weight += this.weigher.applyAsInt(key, value);
+    if (this.weight >= this.budget) {
+      this.freeze();
+    } // if
+  } // write(K, V, Object)
+
+  /**
+   * Swap the active list for an empty one and have the flusher write it to a run, first waiting
+   * while too many frozen lists are queued. Called with the write lock.
+   */
+  void freeze() {
+    boolean interrupted = false;
+    while (this.frozen.size() >= MAX_FROZEN && this.failure == null) {
+      try {
+        this.flushed.await();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } // try/catch
+    } // while
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    } // if
+    SkipList<K, Object> list = this.active;
+    ArrayList<SkipList<K, Object>> frozen = new ArrayList<SkipList<K, Object>>();
+    frozen.add(list);
+    frozen.addAll(this.frozen);
+    this.frozen = frozen;
+    this.active = new SkipList<K, Object>(this.comparator);
+    this.weight = 0;
+    Path file = this.runFile(this.nextRun++);
+    this.lastFlush = this.flusher.submit(() -> this.flush(list, file));
+  } // freeze()
+
+  /**
+   * Write a frozen list to a run and put the run in its place. Called by the flusher.
+   */
+  void flush(SkipList<K, Object> list, Path file) {
+    SortedRun<K, V> run = null;
+    IOException error = null;
+    try {
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      SortedRun.write(list, this.keys, this.values, temp);
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+      run = new SortedRun<K, V>(file, this.comparator, this.keys, this.values);
+    } catch (IOException e) {
+      error = e;
+    } catch (RuntimeException e) {
+      // A codec failed; the list stays frozen, and readable, either way.
+      error = new IOException("cannot write " + file, e);
+    } // try/catch
+    this.lock.writeLock().lock();
+    try {
+      if (error != null) {
+        if (this.failure == null) {
+          this.failure = error;
+        } // if
+      } else {
+        ArrayList<SkipList<K, Object>> frozen = new ArrayList<SkipList<K, Object>>(this.frozen);
+        frozen.remove(list);
+        ArrayList<SortedRun<K, V>> runs = new ArrayList<SortedRun<K, V>>();
+        runs.add(run);
+        runs.addAll(this.runs);
+        this.frozen = frozen;
+        this.runs = runs;
+      } // if/else
+      this.flushed.signalAll();
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try/finally
+  } // flush(SkipList, Path)
+
+  /**
+   * Merges sorted sources, newest first, into the live entries below a bound: for each key, the
+   * newest source's entry wins, and the key is skipped if that entry is a tombstone.
+   */
+  class Merge implements Iterator<Map.Entry<K, V>> {
+    /**
+     * The sources that have entries left, ordered by their current key and then by age.
+     */
+    final PriorityQueue<Cursor> queue;
+
+    /**
+     * The upper bound (or null, if there is none).
+     */
+    final K hi;
+
+    /**
+     * The entry to return next (or null, if there is none).
+     */
+    Map.Entry<K, V> next;
+
+    /**
+     * Merge sources, which are in order from newest to oldest, up to hi.
+     */
+    Merge(List<Iterator<Map.Entry<K, Object>>> sources, K hi) {
+      this.hi = hi;
+      this.queue = new PriorityQueue<Cursor>(Math.max(sources.size(), 1), (a, b) -> {
+        int order = MemTable.this.comparator.compare(a.entry.getKey(), b.entry.getKey());
+        return (order != 0) ? order : Integer.compare(a.age, b.age);
+      });
+      for (int age = 0; age < sources.size(); age++) {
+        Cursor cursor = new Cursor(sources.get(age), age);
+        if (cursor.advance()) {
+          this.queue.add(cursor);
+        } // if
+      } // for
+      this.next = this.advance();
+    } // Merge(List, K)
+
+    @Override
+    public boolean hasNext() {
+      return this.next != null;
+    } // hasNext()
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (this.next == null) {
+        throw new NoSuchElementException();
+      } // if
+      Map.Entry<K, V> entry = this.next;
+      this.next = this.advance();
+      return entry;
+    } // next()
+
+    /**
+     * Find the next live entry below hi.
+     */
+    @SuppressWarnings("unchecked")
+    Map.Entry<K, V> advance() {
+      while (!this.queue.isEmpty()) {
+        Cursor newest = this.queue.poll();
+        Map.Entry<K, Object> entry = newest.entry;
+        if (this.hi != null && MemTable.this.comparator.compare(entry.getKey(), this.hi) >= 0) {
+          this.queue.clear();
+          return null;
+        } // if
+        // Older entries for the same key are hidden.
+        while (!this.queue.isEmpty() && MemTable.this.comparator.compare(
+            this.queue.peek().entry.getKey(), entry.getKey()) == 0) {
+          Cursor older = this.queue.poll();
+          if (older.advance()) {
+            this.queue.add(older);
+          } // if
+        } // while
+        if (newest.advance()) {
+          this.queue.add(newest);
+        } // if
+        if (entry.getValue() != SortedRun.TOMBSTONE) {
+          return new AbstractMap.SimpleImmutableEntry<K, V>(entry.getKey(), (V) entry.getValue());
+        } // if
+      } // while
+      return null;
+    } // advance()
+  } // Merge
+
+  /**
+   * A source being merged and its current entry.
+   */
+  class Cursor {
+    /**
+     * The rest of the source.
+     */
+    final Iterator<Map.Entry<K, Object>> source;
+
+    /**
+     * The position of the source from newest, which breaks ties between equal keys.
+     */
+    final int age;
+
+    /**
+     * The current entry.
+     */
+    Map.Entry<K, Object> entry;
+
+    /**
+     * Wrap a source.
+     */
+    Cursor(Iterator<Map.Entry<K, Object>> source, int age) {
+      this.source = source;
+      this.age = age;
+    } // Cursor(Iterator, int)
+
+    /**
+     * Move to the next entry.
+     *
+     * @return false if the source is exhausted
+     */
+    boolean advance() {
+      if (!this.source.hasNext()) {
+        return false;
+      } // if
+      this.entry = this.source.next();
+      return true;
+    } // advance()
+  } // Cursor
+} // MemTable<K, V>
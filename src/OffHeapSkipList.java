@@ -0,0 +1,618 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * A skip list of byte-array keys and values whose nodes live outside the Java heap, in direct
+ * ByteBuffers. Links are int references into that arena, so the heap holds only the chunk
+ * table and the front pointers no matter how many entries there are. Keys are ordered as unsigned
+ * bytes, lexicographically.
+ */
+public class OffHeapSkipList implements SimpleMap<byte[], byte[]> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The initial height of the skip list.
+   */
+  static final int INITIAL_HEIGHT = 16;
+
+  /**
+   * The default size of each arena chunk: 16 MiB.
+   */
+  static final int DEFAULT_CHUNK_BITS = 24;
+
+  /**
+   * Records are aligned to 8 bytes, so a reference is an address shifted right by 3. That lets
+   * int references span 16 GiB.
+   */
+  static final int ALIGN_BITS = 3;
+
+  /**
+   * The reference that means "no node".
+   */
+  static final int NIL = 0;
+
+  /**
+   * The reference that stands for the front pointers.
+   */
+  static final int HEAD = -1;
+
+  /**
+   * Node layout: height, key length, value reference, then the tower and the key bytes.
+   */
+  static final int HEIGHT_OFFSET = 0;
+  static final int KEY_LENGTH_OFFSET = 4;
+  static final int VALUE_OFFSET = 8;
+  static final int TOWER_OFFSET = 12;
+
+  /**
+   * The length stored for a null value.
+   */
+  static final int NULL_LENGTH = -1;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The arena chunks, each 1 << chunkBits bytes.
+   */
+  ArrayList<ByteBuffer> chunks;
+
+  /**
+   * log2 of the chunk size.
+   */
+  int chunkBits;
+
+  /**
+   * The next free byte in the last chunk.
+   */
+  int free;
+
+  /**
+   * Bytes in the arena that belong to removed nodes or replaced values.
+   */
+  long garbage;
+
+  /**
+   * The front pointers.
+   */
+  int[] front;
+
+  /**
+   * Scratch space for the predecessors found by the most recent search.
+   */
+  int[] update;
+
+  /**
+   * The number of values in the list.
+   */
+  int size;
+
+  /**
+   * The current height of the skiplist.
+   */
+  int height;
+
+  /**
+   * The probability used to determine the height of nodes.
+   */
+  double prob = 0.5;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, skip list with 16 MiB arena chunks.
+   */
+  public OffHeapSkipList() {
+    this(DEFAULT_CHUNK_BITS);
+  } // OffHeapSkipList()
+
+  /**
+   * Create a new, empty, skip list whose arena grows in chunks of 1 << chunkBits bytes. No single
+   * entry may be larger than a chunk.
+   */
+  public OffHeapSkipList(int chunkBits) {
+    if (chunkBits < 10 || chunkBits > 30) {
+      throw new IllegalArgumentException("chunkBits must be between 10 and 30");
+    } // if
+    this.chunkBits = chunkBits;
+    this.front = new int[INITIAL_HEIGHT];
+    this.update = new int[INITIAL_HEIGHT];
+    this.height = INITIAL_HEIGHT;
+    this.clear();
+  } // OffHeapSkipList(int)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key. The arrays are copied into the arena.
+   *
+   * @return a copy of the previous value associated with key (or null, if there's no such value)
+   * @throws NullPointerException if the key is null.
+   * @throws IllegalArgumentException if the entry does not fit in an arena chunk.
+   */
+  @Override
+  public byte[] set(byte[] key, byte[] value) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    ByteBuffer probe = ByteBuffer.wrap(key);
+    int[] nodes = this.predecessors(probe);
+    int next = this.next(nodes[0], 0);
+    if (next != NIL && this.compare(next, probe) == 0) {
+      int old = this.getInt(next, VALUE_OFFSET);
+      byte[] val = this.readValue(old);
+      // The old record is garbage only once the new one is written.
+      this.putInt(next, VALUE_OFFSET, this.writeValue(value));
+      this.garbage += recordSize(Math.max(this.getInt(old, 0), 0));
+      return val;
+    } // If the list contains key, replace the value
+
+    int h = randomHeight();
+    if (h > this.height) {
+      this.grow(h);
+      nodes = this.update;
+    } // if
+    int valueRef = this.writeValue(value);
+    int node;
+    try {
+      node = this.allocate(TOWER_OFFSET + 4 * h + key.length);
+    } catch (RuntimeException e) {
+      // No node refers to the value record.
+      this.garbage += recordSize(value == null ? 0 : value.length);
+      throw e;
+    } // try/catch
+    this.putInt(node, HEIGHT_OFFSET, h);
+    this.putInt(node, KEY_LENGTH_OFFSET, key.length);
+    this.putInt(node, VALUE_OFFSET, valueRef);
+    this.put(node, TOWER_OFFSET + 4 * h, key);
+    for (int level = 0; level < h; level++) {
+      this.setNext(node, level, this.next(nodes[level], level));
+      this.setNext(nodes[level], level, node);
+    } // for
+    this.size++;
+    return null;
+  } // set(byte[], byte[])
+
+  /**
+   * Get a copy of the value associated with key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the map.
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public byte[] get(byte[] key) {
+    int node = this.find(key);
+    if (node == NIL) {
+      throw new IndexOutOfBoundsException("invalid key");
+    } // if
+    return this.readValue(this.getInt(node, VALUE_OFFSET));
+  } // get(byte[])
+
+  /**
+   * Determine how many values are in the map.
+   */
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Determine if a key appears in the table.
+   */
+  @Override
+  public boolean containsKey(byte[] key) {
+    return this.find(key) != NIL;
+  } // containsKey(byte[])
+
+  /**
+   * Remove the value with the given key. The node's space is not reused until compact().
+   *
+   * @return A copy of the associated value (or null, if there is no associated value).
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public byte[] remove(byte[] key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    ByteBuffer probe = ByteBuffer.wrap(key);
+    int[] nodes = this.predecessors(probe);
+    int node = this.next(nodes[0], 0);
+    if (node == NIL || this.compare(node, probe) != 0) {
+      return null;
+    } // if the key is not in the list
+    int h = this.getInt(node, HEIGHT_OFFSET);
+    for (int level = 0; level < h; level++) {
+      this.setNext(nodes[level], level, this.next(node, level));
+    } // for
+    byte[] val = this.readValue(this.getInt(node, VALUE_OFFSET));
+    this.garbage +=
+        recordSize(val == null ? 0 : val.length) + align(TOWER_OFFSET + 4 * h + key.length);
+    this.size--;
+    return val;
+  } // remove(byte[])
+
+  /**
+   * Get an iterator for copies of all of the keys in the map.
+   */
+  @Override
+  public Iterator<byte[]> keys() {
+    return new NodeIterator<byte[]>() {
+      @Override
+      byte[] extract(int node) {
+        return OffHeapSkipList.this.readKey(node);
+      } // extract(int)
+    };
+  } // keys()
+
+  /**
+   * Get an iterator for copies of all of the values in the map.
+   */
+  @Override
+  public Iterator<byte[]> values() {
+    return new NodeIterator<byte[]>() {
+      @Override
+      byte[] extract(int node) {
+        return OffHeapSkipList.this.readValue(OffHeapSkipList.this.getInt(node, VALUE_OFFSET));
+      } // extract(int)
+    };
+  } // values()
+
+  /**
+   * Apply a function to copies of each key/value pair.
+   */
+  @Override
+  public void forEach(BiConsumer<? super byte[], ? super byte[]> action) {
+    for (int node = this.front[0]; node != NIL; node = this.next(node, 0)) {
+      action.accept(this.readKey(node), this.readValue(this.getInt(node, VALUE_OFFSET)));
+    } // for
+  } // forEach
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Drop every entry and release the arena to the garbage collector.
+   */
+  public void clear() {
+    this.chunks = new ArrayList<ByteBuffer>();
+    this.chunks.add(ByteBuffer.allocateDirect(1 << this.chunkBits));
+    // Reference 0 is NIL, so the first record starts after it.
+    this.free = 1 << ALIGN_BITS;
+    this.garbage = 0;
+    Arrays.fill(this.front, NIL);
+    this.size = 0;
+  } // clear()
+
+  /**
+   * Copy the live entries into a fresh arena, in order, keeping each node's height, and release
+   * the old one. Takes time linear in the size of the list.
+   */
+  public void compact() {
+    ArrayList<ByteBuffer> old = this.chunks;
+    int oldFirst = this.front[0];
+    OffHeapSkipList copy = new OffHeapSkipList(this.chunkBits);
+    copy.grow(this.height);
+    int[] tails = copy.update;
+    Arrays.fill(tails, HEAD);
+    for (int node = oldFirst; node != NIL; node = this.next(node, 0)) {
+      int h = this.getInt(node, HEIGHT_OFFSET);
+      byte[] key = this.readKey(node);
+      int valueRef = copy.writeValue(this.readValue(this.getInt(node, VALUE_OFFSET)));
+      int fresh = copy.allocate(TOWER_OFFSET + 4 * h + key.length);
+      copy.putInt(fresh, HEIGHT_OFFSET, h);
+      copy.putInt(fresh, KEY_LENGTH_OFFSET, key.length);
+      copy.putInt(fresh, VALUE_OFFSET, valueRef);
+      copy.put(fresh, TOWER_OFFSET + 4 * h, key);
+      for (int level = 0; level < h; level++) {
+        copy.setNext(fresh, level, NIL);
+        copy.setNext(tails[level], level, fresh);
+        tails[level] = fresh;
+      } // for
+    } // for
+    this.chunks = copy.chunks;
+    this.free = copy.free;
+    this.front = copy.front;
+    this.garbage = 0;
+    old.clear();
+  } // compact()
+
+  /**
+   * Determine how many bytes of native memory the arena holds.
+   */
+  public long arenaBytes() {
+    return (long) this.chunks.size() << this.chunkBits;
+  } // arenaBytes()
+
+  /**
+   * Determine how many bytes of the arena belong to removed nodes or replaced values.
+   */
+  public long garbageBytes() {
+    return this.garbage;
+  } // garbageBytes()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Pick a random height for a new node.
+   */
+  int randomHeight() {
+    return SkipList.randomHeight(this.prob);
+  } // randomHeight()
+
+  /**
+   * Find the node that holds key in a single descent.
+   *
+   * @return the node's reference (or NIL, if there is no such node)
+   */
+  int find(byte[] key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    ByteBuffer probe = ByteBuffer.wrap(key);
+    int cur = HEAD;
+    for (int level = this.height - 1; level > -1; level--) {
+      int next = this.next(cur, level);
+      while (next != NIL) {
+        int order = this.compare(next, probe);
+        if (order == 0) {
+          return next;
+        } else if (order > 0) {
+          break;
+        } // if/else
+        cur = next;
+        next = this.next(cur, level);
+      } // while
+    } // for
+    return NIL;
+  } // find(byte[])
+
+  /**
+   * Record in this.update the last node before key on each level.
+   */
+  int[] predecessors(ByteBuffer probe) {
+    int[] nodes = this.update;
+    int cur = HEAD;
+    for (int level = this.height - 1; level > -1; level--) {
+      int next = this.next(cur, level);
+      while (next != NIL && this.compare(next, probe) < 0) {
+        cur = next;
+        next = this.next(cur, level);
+      } // while
+      nodes[level] = cur;
+    } // for
+    return nodes;
+  } // predecessors(ByteBuffer)
+
+  /**
+   * Raise the list to height h.
+   */
+  void grow(int h) {
+    if (h > this.front.length) {
+      this.front = Arrays.copyOf(this.front, h);
+      this.update = Arrays.copyOf(this.update, h);
+    } // if
+    for (int level = this.height; level < h; level++) {
+      this.update[level] = HEAD;
+    } // for
+    this.height = Math.max(h, this.height);
+  } // grow(int)
+
+  /**
+   * Compare the key of node with the probe, as unsigned bytes, eight at a time.
+   */
+  int compare(int node, ByteBuffer probe) {
+    ByteBuffer chunk = this.chunk(node);
+    int h = chunk.getInt(this.offset(node) + HEIGHT_OFFSET);
+    int len = chunk.getInt(this.offset(node) + KEY_LENGTH_OFFSET);
+    int pos = this.offset(node) + TOWER_OFFSET + 4 * h;
+    int common = Math.min(len, probe.limit());
+    int i = 0;
+    for (; i + 8 <= common; i += 8) {
+      long a = chunk.getLong(pos + i);
+      long b = probe.getLong(i);
+      if (a != b) {
+        return Long.compareUnsigned(a, b);
+      } // if
+    } // for
+    for (; i < common; i++) {
+      int order = Integer.compare(chunk.get(pos + i) & 0xFF, probe.get(i) & 0xFF);
+      if (order != 0) {
+        return order;
+      } // if
+    } // for
+    return Integer.compare(len, probe.limit());
+  } // compare(int, ByteBuffer)
+
+  /**
+   * Get the next node after node at the specified level.
+   */
+  int next(int node, int level) {
+    if (node == HEAD) {
+      return this.front[level];
+    } // if
+    return this.getInt(node, TOWER_OFFSET + 4 * level);
+  } // next(int, int)
+
+  /**
+   * Set the next node after node at the specified level.
+   */
+  void setNext(int node, int level, int next) {
+    if (node == HEAD) {
+      this.front[level] = next;
+    } else {
+      this.putInt(node, TOWER_OFFSET + 4 * level, next);
+    } // if/else
+  } // setNext(int, int, int)
+
+  /**
+   * Copy the key of node out of the arena.
+   */
+  byte[] readKey(int node) {
+    int h = this.getInt(node, HEIGHT_OFFSET);
+    byte[] key = new byte[this.getInt(node, KEY_LENGTH_OFFSET)];
+    this.get(node, TOWER_OFFSET + 4 * h, key);
+    return key;
+  } // readKey(int)
+
+  /**
+   * Copy a value record out of the arena.
+   */
+  byte[] readValue(int ref) {
+    int len = this.getInt(ref, 0);
+    if (len == NULL_LENGTH) {
+      return null;
+    } // if
+    byte[] value = new byte[len];
+    this.get(ref, 4, value);
+    return value;
+  } // readValue(int)
+
+  /**
+   * Copy a value into a new record in the arena.
+   *
+   * @return the record's reference
+   */
+  int writeValue(byte[] value) {
+    int ref = this.allocate(4 + (value == null ? 0 : value.length));
+    if (value == null) {
+      this.putInt(ref, 0, NULL_LENGTH);
+    } else {
+      this.putInt(ref, 0, value.length);
+      this.put(ref, 4, value);
+    } // if/else
+    return ref;
+  } // writeValue(byte[])
+
+  /**
+   * Reserve bytes in the arena, starting a new chunk if the current one is full.
+   *
+   * @return the reference to the reserved space
+   */
+  int allocate(int bytes) {
+    int chunkSize = 1 << this.chunkBits;
+    int need = align(bytes);
+    if (need > chunkSize) {
+      throw new IllegalArgumentException("entry of " + bytes + " bytes exceeds the arena chunk");
+    } // if
+    if (this.free + need > chunkSize) {
+      long limit = ((long) Integer.MAX_VALUE + 1) << ALIGN_BITS;
+      if (((long) this.chunks.size() + 1) << this.chunkBits > limit) {
+        throw new IllegalStateException("arena is full");
+      } // if
+      this.chunks.add(ByteBuffer.allocateDirect(chunkSize));
+      this.free = 0;
+    } // if
+    long address = ((long) (this.chunks.size() - 1) << this.chunkBits) + this.free;
+    this.free += need;
+    return (int) (address >>> ALIGN_BITS);
+  } // allocate(int)
+
+  /**
+   * Round a size up to the record alignment.
+   */
+  static int align(int bytes) {
+    int mask = (1 << ALIGN_BITS) - 1;
+    return (bytes + mask) & ~mask;
+  } // align(int)
+
+  /**
+   * The arena space taken by a value record of len bytes.
+   */
+  static int recordSize(int len) {
+    return align(4 + len);
+  } // recordSize(int)
+
+  /**
+   * Find the chunk that holds a reference.
+   */
+  ByteBuffer chunk(int ref) {
+    long address = (ref & 0xFFFFFFFFL) << ALIGN_BITS;
+    return this.chunks.get((int) (address >>> this.chunkBits));
+  } // chunk(int)
+
+  /**
+   * Find the position of a reference within its chunk.
+   */
+  int offset(int ref) {
+    long address = (ref & 0xFFFFFFFFL) << ALIGN_BITS;
+    return (int) (address & ((1L << this.chunkBits) - 1));
+  } // offset(int)
+
+  /**
+   * Read an int at delta bytes past a reference.
+   */
+  int getInt(int ref, int delta) {
+    return this.chunk(ref).getInt(this.offset(ref) + delta);
+  } // getInt(int, int)
+
+  /**
+   * Write an int at delta bytes past a reference.
+   */
+  void putInt(int ref, int delta, int value) {
+    this.chunk(ref).putInt(this.offset(ref) + delta, value);
+  } // putInt(int, int, int)
+
+  /**
+   * Fill dst from the bytes at delta past a reference.
+   */
+  void get(int ref, int delta, byte[] dst) {
+    ByteBuffer view = this.chunk(ref).duplicate();
+    view.position(this.offset(ref) + delta);
+    view.get(dst);
+  } // get(int, int, byte[])
+
+  /**
+   * Copy src to the bytes at delta past a reference.
+   */
+  void put(int ref, int delta, byte[] src) {
+    ByteBuffer view = this.chunk(ref).duplicate();
+    view.position(this.offset(ref) + delta);
+    view.put(src);
+  } // put(int, int, byte[])
+
+  /**
+   * An iterator over the nodes at level 0 that hands back something extracted from each.
+   */
+  abstract class NodeIterator<T> implements Iterator<T> {
+    /**
+     * The next node to visit.
+     */
+    int next = OffHeapSkipList.this.front[0];
+
+    /**
+     * Get what this iterator returns for node.
+     */
+    abstract T extract(int node);
+
+    @Override
+    public boolean hasNext() {
+      return this.next != NIL;
+    } // hasNext()
+
+    @Override
+    public T next() {
+      if (this.next == NIL) {
+        throw new NoSuchElementException();
+      } // if
+      int node = this.next;
+      this.next = OffHeapSkipList.this.next(node, 0);
+      return this.extract(node);
+    } // next()
+  } // NodeIterator<T>
+} // OffHeapSkipList
@@ -1,9 +1,16 @@
 import java.io.PrintWriter;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Random;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * An implementation of skip lists.
@@ -15,37 +22,71 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   // +-----------+
 
   /**
-   * The initial height of the skip list.
+   * The initial capacity of the front tower. The list itself starts with one level.
    */
-  static final int INITIAL_HEIGHT = 16;
+  static final int INITIAL_HEIGHT = 4;
 
-  // +---------------+-----------------------------------------------
-  // | Static Fields |
-  // +---------------+
+  /**
+   * The tallest a node may be, whatever the probability.
+   */
+  static final int MAX_HEIGHT = 64;
 
-  static Random rand = new Random();
+  /**
+   * How many levels a node may rise above log base 1/prob of the size of the list.
+   */
+  static final int HEIGHT_MARGIN = 2;
 
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
 
   /**
-   * Pointers to all the front elements.
+   * A sentinel node whose links are the pointers to all the front elements.
+   */
+  SLNode<K, V> head;
+
+  /**
+   * The last node in the list (or null, if the list is empty).
+   */
+  SLNode<K, V> tail;
+
+  /**
+   * Scratch space for the predecessors found by the most recent search. Reused across calls so
+   * that set and remove do not allocate.
+   */
+  SLNode<K, V>[] update;
+
+  /**
+   * When the list is indexed, the rank of each node in this.update (the head has rank 0 and the
+   * first node rank 1).
    */
-  ArrayList<SLNode<K, V>> front;
+  int[] ranks;
+
+  /**
+   * Whether each link records its width, the number of positions it skips, so that positional
+   * queries take logarithmic time.
+   */
+  boolean indexed;
 
   /**
    * The comparator used to determine the ordering in the list.
    */
   Comparator<K> comparator;
 
+  /**
+   * In a list made by withSortKey, the function from a key to the form it is compared by. Each
+   * node caches its key's form. Otherwise null.
+   */
+  Function<? super K, ? extends Comparable<?>> sortKey;
+
   /**
    * The number of values in the list.
    */
   int size;
 
   /**
-   * The current height of the skiplist.
+   * The current height of the skiplist: the number of levels that have at least one node, but
+   * never less than one.
    */
   int height;
 
@@ -55,9 +96,29 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   double prob = 0.5;
 
   /**
-   * The counter used to determine the process that search uses.
+   * Where searches and allocations are reported (or null, to report nothing).
+   */
+  SkipListMetrics metrics;
+
+  /**
+   * A direct-mapped cache of recently found nodes, indexed by a hash of their keys (or null, if
+   * there is none). A slot holds null or a node in the list, and only ever the slot of the node's
+   * own key: unlink clears that slot when it removes the node. Searches under a shared lock may
+   * fill slots concurrently, which is harmless, since every node they store is in the list and
+   * every hit is confirmed by the comparator.
+   */
+  SLNode<K, V>[] hotNodes;
+
+  /**
+   * The hash of the key in each slot of hotNodes, checked first so that a slot holding another
+   * key is passed over without touching its node.
    */
-  double counter = 0;
+  int[] hotHashes;
+
+  /**
+   * How far a key's hash, times the golden ratio, is shifted right to index hotNodes.
+   */
+  int hotShift;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -67,22 +128,64 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    * Create a new skip list that orders values using the specified comparator.
    */
   public SkipList(Comparator<K> comparator) {
-    this.front = new ArrayList<SLNode<K, V>>(INITIAL_HEIGHT);
-    for (int i = 0; i < INITIAL_HEIGHT; i++) {
-      front.add(null);
-    } // for
+    this(comparator, false);
+  } // SkipList(Comparator<K>)
+
+  /**
+   * Create a new skip list that orders values using the specified comparator. If indexed is true,
+   * every link also records its width, which set and remove keep up to date, so that rank, select
+   * and slice take logarithmic rather than linear time.
+   */
+  public SkipList(Comparator<K> comparator, boolean indexed) {
+    this.head = new SLNode<K, V>(null, null, INITIAL_HEIGHT);
+    this.update = newTower(INITIAL_HEIGHT);
+    this.ranks = new int[INITIAL_HEIGHT];
+    this.indexed = indexed;
+    if (indexed) {
+      this.head.width = new int[INITIAL_HEIGHT];
+    } // if
     this.comparator = comparator;
     this.size = 0;
-    this.height = INITIAL_HEIGHT;
-  } // SkipList(Comparator<K>)
+    this.height = 1;
+  } // SkipList(Comparator<K>, boolean)
 
   /**
-   * Create a new skip list that orders values using a not-very-clever default comparator.
+   * Create a new skip list that orders keys by their natural ordering. Keys that are not
+   * Comparable fall back to comparing their strings.
    */
   public SkipList() {
-    this((k1, k2) -> k1.toString().compareTo(k2.toString()));
+    this((k1, k2) -> naturalOrder(k1, k2));
   } // SkipList()
 
+  /**
+   * Create a skip list ordered by a sort key derived from each key, such as a normalized or
+   * parsed form that is costly to compute. Each node computes its key's form once, when it is
+   * created, and each search computes the form of the key it looks for once, so no comparison
+   * recomputes a form.
+   */
+  public static <K, V, C extends Comparable<? super C>> SkipList<K, V> withSortKey(
+      Function<? super K, ? extends C> sortKey) {
+    SkipList<K, V> list =
+        new SkipList<K, V>((k1, k2) -> sortKey.apply(k1).compareTo(sortKey.apply(k2)));
+    list.sortKey = sortKey;
+    return list;
+  } // withSortKey(Function)
+
+  /**
+   * Create a skip list from entries whose keys are in strictly increasing order, in one pass and
+   * without searching. The result is indistinguishable from one built by calling set on each
+   * entry.
+   *
+   * @throws IllegalArgumentException if the keys are not strictly increasing.
+   * @throws NullPointerException if a key is null.
+   */
+  public static <K, V> SkipList<K, V> fromSorted(Comparator<K> comparator,
+      Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+    SkipList<K, V> list = new SkipList<K, V>(comparator);
+    list.bulkLoad(entries);
+    return list;
+  } // fromSorted(Comparator<K>, Iterator)
+
 
   // +-------------------+-------------------------------------------
   // | SimpleMap methods |
@@ -96,58 +199,20 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    *       node to store data.
    * @throws NullPointerException if the key is null.
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
   @Override
   public V set(K key, V value) {
-    ArrayList<SLNode<K, V>> nodes = this.search(key);
-    if (nodes.get(0).next(0) != null
-        && this.comparator.compare(nodes.get(0).next(0).key, key) == 0) {
-      V val = nodes.get(0).next(0).value;
-      nodes.get(0).next(0).value = value;
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    Object probe = this.probe(key);
+    SLNode<K, V>[] nodes = this.predecessors(probe, SkipListMetrics.Operation.SET);
+    SLNode<K, V> next = nodes[0].next(0);
+    if (next != null && this.compare(next, probe) == 0) {
+      V val = next.value;
+      next.value = value;
       return val;
-    } // If the list contains key, find the key and update the value
-
-    // Initialize a new node
-    int h = randomHeight();
-    SLNode<K, V> node = new SLNode(key, value, h);
-
-    if (this.isEmpty()) {
-      if (h > INITIAL_HEIGHT) {
-        for (int i = this.height; i < h; i++) {
-          this.front.add(node);
-          node.setNext(i, null);
-          counter++;
-        } // for
-        this.height = h;
-      } // if
-      for (int i = 0; i < h; i++) {
-        this.front.set(i, node);
-        node.setNext(i, null);
-      } // for
-    } // If the list is empty, add a new node
-
-    else {
-      if (h > INITIAL_HEIGHT) {
-        for (int i = this.height; i < h; i++) {
-          this.front.add(node);
-          node.setNext(i, null);
-        } // for
-        this.height = h;
-        for (int level = nodes.size() - 1; level > -1; level--) {
-          node.setNext(level, nodes.get(level).next(level));
-          nodes.get(level).setNext(level, node);
-          counter++;
-        } // for
-      } // if the height of the node is higher
-      else {
-        for (int level = h - 1; level > -1; level--) {
-          node.setNext(level, nodes.get(level).next(level));
-          nodes.get(level).setNext(level, node);
-          counter++;
-        } // for
-      } // else: the height of the node is lower than
-    } // else: the list is not empty and does not contain key
-    this.size++;
+    } // If the list contains key, update the value
+    this.insert(nodes, key, probe, value);
     return null;
   } // set(K,V)
 
@@ -162,10 +227,11 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     if (key == null) {
       throw new NullPointerException("null key");
     } // if
-    if (!this.containsKey(key)) {
+    SLNode<K, V> node = this.find(key, SkipListMetrics.Operation.GET);
+    if (node == null) {
       throw new IndexOutOfBoundsException("invalid key");
-    }
-    return this.search(key).get(0).next(0).value;
+    } // if
+    return node.value;
   } // get(K,V)
 
   /**
@@ -181,14 +247,7 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    */
   @Override
   public boolean containsKey(K key) {
-    // Check if is initialized
-    if (this.isEmpty()) {
-      return false;
-    } // if
-      // Walk through the list and check if any node contains key
-    ArrayList<SLNode<K, V>> nodes = this.search(key);
-    return nodes.get(0).next(0) != null
-        && this.comparator.compare(nodes.get(0).next(0).key, key) == 0;
+    return this.find(key, SkipListMetrics.Operation.CONTAINS) != null;
   } // containsKey(K)
 
   /**
@@ -199,22 +258,20 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    */
   @Override
   public V remove(K key) {
-    if (this.containsKey(key)) {
-      ArrayList<SLNode<K, V>> nodes = this.search(key);
-      V val = null;
-      for (int level = 0; level < nodes.size(); level++) {
-        SLNode<K, V> prev = nodes.get(level);
-        if (prev.next(level) != null) {
-          val = prev.next(level).value;
-          prev.setNext(level, prev.next(level).next(level));
-        }
-        counter++;
-      } // for
-      this.size--;
-      return val;
-    } // if the key is in the list
-    else
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    if (this.isEmpty()) {
       return null;
+    } // if
+    Object probe = this.probe(key);
+    SLNode<K, V>[] nodes = this.predecessors(probe, SkipListMetrics.Operation.REMOVE);
+    SLNode<K, V> node = nodes[0].next(0);
+    if (node == null || this.compare(node, probe) != 0) {
+      return null;
+    } // if the key is not in the list
+    this.unlink(nodes, node);
+    return node.value;
   } // remove(K)
 
   /**
@@ -283,13 +340,375 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   // | Other public methods |
   // +----------------------+
 
+  /**
+   * Append entries whose keys are in strictly increasing order and greater than every key
+   * already in the list. Each node is linked after the last node of each of its levels, so the
+   * load takes time linear in the number of entries.
+   *
+   * @throws IllegalArgumentException if a key is not greater than the one before it. The entries
+   *         before it stay in the list.
+   * @throws NullPointerException if a key is null.
+   */
+  public void bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+    SLNode<K, V>[] tails = this.tails();
+    K last = (tails[0] == this.head) ? null : tails[0].key;
+    while (entries.hasNext()) {
+      Map.Entry<? extends K, ? extends V> entry = entries.next();
+      K key = entry.getKey();
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } // if
+      Object probe = this.probe(key);
+      if (tails[0] != this.head && this.compare(tails[0], probe) >= 0) {
+        throw new IllegalArgumentException("key " + key + " does not follow " + last);
+      } // if
+      tails = this.append(tails, key, probe, entry.getValue(),
+          Math.min(randomHeight(), this.maxHeight(this.size + 1)));
+      last = key;
+    } // while
+  } // bulkLoad(Iterator)
+
+  /**
+   * Get the values associated with many keys. When the keys are in increasing order, each search
+   * continues from the previous key's predecessors (a finger) instead of the front, so clustered
+   * keys cost little more than walking between them. Keys out of order restart from the front.
+   *
+   * @return the values, in the order of the keys, with null for keys that are not in the map.
+   * @throws NullPointerException if a key is null.
+   */
+  public List<V> getAll(Iterable<? extends K> keys) {
+    ArrayList<V> values = new ArrayList<V>();
+    SLNode<K, V>[] finger = this.resetFinger();
+    K prev = null;
+    for (K key : keys) {
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } else if (prev != null && this.comparator.compare(key, prev) < 0) {
+        finger = this.resetFinger();
+      } // if/else
+      Object probe = this.probe(key);
+      SLNode<K, V> next =
+          this.advance(finger, probe, SkipListMetrics.Operation.GET_ALL)[0].next[0];
+      if (next != null && this.compare(next, probe) == 0) {
+        values.add(next.value);
+      } else {
+        values.add(null);
+      } // if/else
+      prev = key;
+    } // for
+    return values;
+  } // getAll(Iterable)
+
+  /**
+   * Set the values associated with many keys, searching with a finger as getAll does.
+   *
+   * @throws NullPointerException if a key is null.
+   */
+  public void setAll(Iterable<? extends Map.Entry<? extends K, ? extends V>> entries) {
+    if (this.indexed) {
+      // The finger does not track ranks, so an indexed list takes the ordinary path.
+      for (Map.Entry<? extends K, ? extends V> entry : entries) {
+        this.set(entry.getKey(), entry.getValue());
+      } // for
+      return;
+    } // if
+    SLNode<K, V>[] finger = this.resetFinger();
+    K prev = null;
+    for (Map.Entry<? extends K, ? extends V> entry : entries) {
+      K key = entry.getKey();
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } else if (prev != null && this.comparator.compare(key, prev) < 0) {
+        finger = this.resetFinger();
+      } // if/else
+      Object probe = this.probe(key);
+      SLNode<K, V> next =
+          this.advance(finger, probe, SkipListMetrics.Operation.SET_ALL)[0].next[0];
+      if (next != null && this.compare(next, probe) == 0) {
+        next.value = entry.getValue();
+      } else {
+        this.insert(finger, key, probe, entry.getValue());
+        finger = this.update;
+      } // if/else
+      prev = key;
+    } // for
+  } // setAll(Iterable)
+
+  /**
+   * Get an iterator for the entries with lo <= key < hi, in order. It seeks to lo with one
+   * descent and then walks the bottom level, stopping at hi. A null bound is unbounded.
+   */
+  public Iterator<Map.Entry<K, V>> range(K lo, K hi) {
+    return new Iterator<Map.Entry<K, V>>() {
+      Iterator<SLNode<K, V>> nit = SkipList.this.nodes(lo, hi);
+
+      @Override
+      public boolean hasNext() {
+        return nit.hasNext();
+      } // hasNext()
+
+      @Override
+      public Map.Entry<K, V> next() {
+        SLNode<K, V> node = nit.next();
+        return new AbstractMap.SimpleImmutableEntry<K, V>(node.key, node.value);
+      } // next()
+    };
+  } // range(K, K)
+
+  /**
+   * Get a view of the part of the map with lo <= key < hi. A null bound is unbounded. The view
+   * writes through to this list; setting a key outside the bounds is an error.
+   */
+  public SimpleMap<K, V> subMap(K lo, K hi) {
+    return new SubMap(lo, hi);
+  } // subMap(K, K)
+
+  /**
+   * Get a view of the part of the map with keys less than hi.
+   */
+  public SimpleMap<K, V> headMap(K hi) {
+    return new SubMap(null, hi);
+  } // headMap(K)
+
+  /**
+   * Get a view of the part of the map with keys greater than or equal to lo.
+   */
+  public SimpleMap<K, V> tailMap(K lo) {
+    return new SubMap(lo, null);
+  } // tailMap(K)
+
+  /**
+   * Get the smallest key in the map.
+   *
+   * @throws NoSuchElementException if the map is empty.
+   */
+  public K firstKey() {
+    if (this.isEmpty()) {
+      throw new NoSuchElementException("empty list");
+    } // if
+    return this.head.next[0].key;
+  } // firstKey()
+
+  /**
+   * Get the largest key in the map.
+   *
+   * @throws NoSuchElementException if the map is empty.
+   */
+  public K lastKey() {
+    if (this.isEmpty()) {
+      throw new NoSuchElementException("empty list");
+    } // if
+    return this.tail.key;
+  } // lastKey()
+
+  /**
+   * Get the largest key less than or equal to key.
+   *
+   * @return that key (or null, if there is no such key)
+   * @throws NullPointerException if the key is null.
+   */
+  public K floorKey(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    Object probe = this.probe(key);
+    SLNode<K, V> cur = this.head;
+    for (int level = this.height - 1; level > -1; level--) {
+      SLNode<K, V> next = cur.next[level];
+      while (next != null && this.compare(next, probe) <= 0) {
+        cur = next;
+        next = cur.next[level];
+      } // while
+    } // for
+    return (cur == this.head) ? null : cur.key;
+  } // floorKey(K)
+
+  /**
+   * Get the smallest key greater than or equal to key.
+   *
+   * @return that key (or null, if there is no such key)
+   * @throws NullPointerException if the key is null.
+   */
+  public K ceilingKey(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    SLNode<K, V> node = this.ceiling(key);
+    return (node == null) ? null : node.key;
+  } // ceilingKey(K)
+
+  /**
+   * Remove the entry with the smallest key. The head is its predecessor on every level, so this
+   * needs no search.
+   *
+   * @return that entry (or null, if the map is empty)
+   */
+  public Map.Entry<K, V> pollFirst() {
+    SLNode<K, V> first = this.head.next[0];
+    if (first == null) {
+      return null;
+    } // if
+    // Widths above the node change too, so an indexed list needs the head on every level.
+    int levels = this.indexed ? this.height : first.next.length;
+    SLNode<K, V>[] nodes = this.update;
+    for (int level = 0; level < levels; level++) {
+      nodes[level] = this.head;
+    } // for
+    this.unlink(nodes, first);
+    return new AbstractMap.SimpleImmutableEntry<K, V>(first.key, first.value);
+  } // pollFirst()
+
+  /**
+   * Determine how many keys in the map are less than key, which is the position key has or would
+   * have. Takes logarithmic time in an indexed list and linear time otherwise.
+   *
+   * @throws NullPointerException if the key is null.
+   */
+  public int rank(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    Object probe = this.probe(key);
+    if (!this.indexed) {
+      int rank = 0;
+      for (SLNode<K, V> node = this.head.next[0]; node != null
+          && this.compare(node, probe) < 0; node = node.next[0]) {
+        rank++;
+      } // for
+      return rank;
+    } // if
+    SLNode<K, V> cur = this.head;
+    int rank = 0;
+    for (int level = this.height - 1; level > -1; level--) {
+      SLNode<K, V> next = cur.next[level];
+      while (next != null && this.compare(next, probe) < 0) {
+        rank += cur.width[level];
+        cur = next;
+        next = cur.next[level];
+      } // while
+    } // for
+    return rank;
+  } // rank(K)
+
+  /**
+   * Get the key at position i, counting from 0. Takes logarithmic time in an indexed list and
+   * linear time otherwise.
+   *
+   * @throws IndexOutOfBoundsException if i is not a position in the map.
+   */
+  public K select(int i) {
+    return this.nodeAt(i).key;
+  } // select(int)
+
+  /**
+   * Get an iterator for the entries at positions from (inclusive) to to (exclusive).
+   *
+   * @throws IndexOutOfBoundsException if the positions are not a range within the map.
+   */
+  public Iterator<Map.Entry<K, V>> slice(int from, int to) {
+    if (from < 0 || to > this.size || from > to) {
+      throw new IndexOutOfBoundsException("invalid slice [" + from + ", " + to + ")");
+    } // if
+    return new Iterator<Map.Entry<K, V>>() {
+      SLNode<K, V> next = (from == to) ? null : SkipList.this.nodeAt(from);
+      int remaining = to - from;
+
+      @Override
+      public boolean hasNext() {
+        return this.remaining > 0;
+      } // hasNext()
+
+      @Override
+      public Map.Entry<K, V> next() {
+        if (this.remaining <= 0) {
+          throw new NoSuchElementException();
+        } // if
+        SLNode<K, V> node = this.next;
+        this.next = node.next[0];
+        this.remaining--;
+        return new AbstractMap.SimpleImmutableEntry<K, V>(node.key, node.value);
+      } // next()
+    };
+  } // slice(int, int)
+
+  /**
+   * Measure the shape of the list: the nodes on each level, the tower heights, and the length of
+   * the search for each key. Takes one pass along the bottom level.
+   */
+  public SkipListStats stats() {
+    long[] levels = new long[this.height];
+    // runs[level] counts the nodes exactly level + 1 tall since the last taller node, which are
+    // the nodes a search at that level passes; pending is the sum of the runs.
+    long[] runs = new long[this.height];
+    long pending = 0;
+    long totalPath = 0;
+    long maxPath = 0;
+    for (SLNode<K, V> node = this.head.next[0]; node != null; node = node.next[0]) {
+      int h = node.next.length;
+      long path = pending + this.height;
+      totalPath += path;
+      maxPath = Math.max(maxPath, path);
+      for (int level = 0; level < h - 1; level++) {
+        pending -= runs[level];
+        runs[level] = 0;
+      } // for
+      runs[h - 1]++;
+      pending++;
+      for (int level = 0; level < h; level++) {
+        levels[level]++;
+      } // for
+    } // for
+    double meanPath = (this.size == 0) ? 0 : (double) totalPath / this.size;
+    return new SkipListStats(this.size, this.height, this.prob, levels, meanPath, maxPath);
+  } // stats()
+
+  /**
+   * Give every node a new height so that the list has the shape it would have if heights were
+   * perfectly regular: with prob 1/2, every second node reaches level 1, every fourth level 2,
+   * and so on. That bounds every search by about log n levels with fewer than 1/prob hops on
+   * each, however unlucky the random heights or the removals have been. Nodes that are added
+   * later get random heights again.
+   *
+   * The list is relinked in one pass along the bottom level, keeping every node, so cached sort
+   * keys and the front cache stay valid; only the towers are replaced.
+   */
+  public void rebalance() {
+    SLNode<K, V> first = this.head.next[0];
+    int n = this.size;
+    int cap = this.maxHeight(n);
+    Arrays.fill(this.head.next, null);
+    if (this.indexed) {
+      Arrays.fill(this.head.width, 0);
+    } // if
+    this.height = 1;
+    this.size = 0;
+    this.tail = null;
+    SLNode<K, V>[] tails = this.resetFinger();
+    int position = 0;
+    for (SLNode<K, V> node = first; node != null;) {
+      SLNode<K, V> next = node.next[0];
+      int h = Math.min(this.regularHeight(++position), cap);
+      if (node.next.length == h) {
+        Arrays.fill(node.next, null);
+      } else {
+        node.next = newTower(h);
+      } // if/else
+      if (this.indexed) {
+        node.width = new int[h];
+      } // if
+      tails = this.link(tails, node);
+      node = next;
+    } // for
+    this.shrink();
+  } // rebalance()
+
   /**
    * Dump the list to some output location.
    */
   public void dump(PrintWriter pen) {
     String leading = "          ";
 
-    SLNode<K, V> current = front.get(0);
+    SLNode<K, V> current = this.head.next[0];
 
     // Print some X's at the start
     pen.print(leading);
@@ -315,17 +734,17 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
       } // if/else
 
       // Print an indication for the links it has.
-      for (int level = 0; level < current.next.size(); level++) {
+      for (int level = 0; level < current.next.length; level++) {
         pen.print("-*");
       } // for
       // Print an indication for the links it lacks.
-      for (int level = current.next.size(); level < this.height; level++) {
+      for (int level = current.next.length; level < this.height; level++) {
         pen.print(" |");
       } // for
       pen.println();
       printLinks(pen, leading);
 
-      current = current.next.get(0);
+      current = current.next[0];
     } // while
 
     // Print some O's at the start
@@ -356,19 +775,61 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    * Pick a random height for a new node.
    */
   int randomHeight() {
-    int result = 1;
-    while (rand.nextDouble() < prob) {
-      result = result + 1;
-    }
-    return result;
+    return randomHeight(this.prob);
   } // randomHeight()
 
   /**
-   * Re-zero the counter.
+   * Pick a random height, where each level above the first is kept with probability prob. Uses a
+   * single draw from the calling thread's generator, so lists on different threads never contend:
+   * for 1/2 the height is one more than the trailing zeros of a random long, and otherwise it is
+   * sampled from the geometric distribution by inversion.
+   *
+   * @throws IllegalArgumentException if prob is 1 or more, since heights would never stop.
+   */
+  static int randomHeight(double prob) {
+    if (prob == 0.5) {
+      return Math.min(Long.numberOfTrailingZeros(ThreadLocalRandom.current().nextLong()), 63) + 1;
+    } else if (!(prob > 0)) {
+      return 1;
+    } else if (prob >= 1) {
+      throw new IllegalArgumentException("prob must be less than 1");
+    } // if/else
+    // 1 - nextDouble() is in (0, 1], so the logarithm is finite. For prob near 1 the quotient
+    // can be huge, so cap it as the 1/2 case is capped.
+    double u = 1.0 - ThreadLocalRandom.current().nextDouble();
+    return (int) Math.min(Math.log(u) / Math.log(prob), 63) + 1;
+  } // randomHeight(double)
+
+  /**
+   * Report every search and node allocation from now on to metrics, or stop reporting if metrics
+   * is null. Without metrics a search only counts its steps in local variables.
+   */
+  public void setMetrics(SkipListMetrics metrics) {
+    this.metrics = metrics;
+  } // setMetrics(SkipListMetrics)
+
+  /**
+   * Keep the nodes most recently found by get and containsKey in a cache of slots entries
+   * (rounded up to a power of two), so that a hot key takes one hash and one comparison instead
+   * of a descent; or drop the cache, if slots is 0. Hits need keys whose hashCode agrees with
+   * the comparator; other keys always miss, which costs a little but is never wrong. set keeps a
+   * key's node, and remove clears its slot, so the cache never holds a stale node.
+   *
+   * @throws IllegalArgumentException if slots is negative or more than 2^30.
    */
-  public void recounter() {
-    this.counter = 0;
-  }
+  public void setFrontCache(int slots) {
+    if (slots < 0 || slots > 1 << 30) {
+      throw new IllegalArgumentException("invalid number of slots: " + slots);
+    } else if (slots == 0) {
+      this.hotNodes = null;
+      this.hotHashes = null;
+      return;
+    } // if/else
+    int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(slots - 1));
+    this.hotShift = 32 - bits;
+    this.hotHashes = new int[1 << bits];
+    this.hotNodes = newTower(1 << bits);
+  } // setFrontCache(int)
 
   /**
    * Get an iterator for all of the nodes. (Useful for implementing the other iterators.)
@@ -379,7 +840,7 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
       /**
        * A nodesence to the next node to return.
        */
-      SLNode<K, V> next = SkipList.this.front.get(0);
+      SLNode<K, V> next = SkipList.this.head.next[0];
 
       @Override
       public boolean hasNext() {
@@ -392,12 +853,125 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
           throw new IllegalStateException();
         }
         SLNode<K, V> temp = this.next;
-        this.next = this.next.next.get(0);
+        this.next = this.next.next[0];
         return temp;
       } // next();
     }; // new Iterator
   } // nodes()
 
+  /**
+   * Get an iterator for the nodes with lo <= key < hi. A null bound is unbounded.
+   */
+  Iterator<SLNode<K, V>> nodes(K lo, K hi) {
+    return new Iterator<SLNode<K, V>>() {
+
+      /**
+       * What hi is compared by (or null, for no bound).
+       */
+      Object hiProbe = (hi == null) ? null : SkipList.this.probe(hi);
+
+      /**
+       * The next node to return, or null once we reach hi.
+       */
+      SLNode<K, V> next = bounded(SkipList.this.ceiling(lo));
+
+      /**
+       * Cut the walk off at hi.
+       */
+      SLNode<K, V> bounded(SLNode<K, V> node) {
+        if (node == null || hi == null || SkipList.this.compare(node, this.hiProbe) < 0) {
+          return node;
+        } // if
+        return null;
+      } // bounded(SLNode<K, V>)
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public SLNode<K, V> next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        SLNode<K, V> temp = this.next;
+        this.next = bounded(this.next.next[0]);
+        return temp;
+      } // next()
+    }; // new Iterator
+  } // nodes(K, K)
+
+  /**
+   * Find the first node whose key is at least key, in one descent. A null key finds the first
+   * node.
+   */
+  SLNode<K, V> ceiling(K key) {
+    if (key == null) {
+      return this.head.next[0];
+    } // if
+    Object probe = this.probe(key);
+    SLNode<K, V> cur = this.head;
+    SLNode<K, V> next = null;
+    for (int level = this.height - 1; level > -1; level--) {
+      next = cur.next[level];
+      while (next != null && this.compare(next, probe) < 0) {
+        cur = next;
+        next = cur.next[level];
+      } // while
+    } // for
+    return next;
+  } // ceiling(K)
+
+  /**
+   * Get what key is compared by: its form, in a list with a sort key, or else key itself. Each
+   * operation computes this once and passes it to compare.
+   */
+  Object probe(K key) {
+    if (this.sortKey == null) {
+      return key;
+    } // if
+    return Objects.requireNonNull(this.sortKey.apply(key));
+  } // probe(K)
+
+  /**
+   * Compare the key of node with a key whose probe is probe. In a list with a sort key, compare
+   * the node's cached form with the probe, which is the key's form.
+   */
+  @SuppressWarnings("unchecked")
+  int compare(SLNode<K, V> node, Object probe) {
+    if (this.sortKey == null) {
+      return this.comparator.compare(node.key, (K) probe);
+    } // if
+    return ((SortKeyNode<K, V>) node).form.compareTo(probe);
+  } // compare(SLNode<K, V>, Object)
+
+  /**
+   * Create a node of height h for key, whose probe is probe, caching its sort key if the list has
+   * one.
+   */
+  @SuppressWarnings("unchecked")
+  SLNode<K, V> newNode(K key, Object probe, V value, int h) {
+    if (this.metrics != null) {
+      this.metrics.allocated(h);
+    } // if
+    if (this.sortKey == null) {
+      return new SLNode<K, V>(key, value, h);
+    } // if
+    return new SortKeyNode<K, V>(key, value, h, (Comparable<Object>) probe);
+  } // newNode(K, Object, V, int)
+
+  /**
+   * Compare two keys by their natural ordering, or by their strings if they are not Comparable.
+   */
+  @SuppressWarnings("unchecked")
+  static <K> int naturalOrder(K k1, K k2) {
+    if (k1 instanceof Comparable) {
+      return ((Comparable<Object>) k1).compareTo(k2);
+    } // if
+    return k1.toString().compareTo(k2.toString());
+  } // naturalOrder(K, K)
+
   /**
    * Determine if the skip list is empty
    */
@@ -405,6 +979,65 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     return this.size <= 0;
   }// isEmpty()
 
+  /**
+   * Find the node that holds key in the front cache, if there is one, or else in a single
+   * descent, stopping as soon as a level links to it.
+   * 
+   * @return the node with key (or null, if there is no such node)
+   * @throws NullPointerException if the key is null.
+   */
+  SLNode<K, V> find(K key, SkipListMetrics.Operation op) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    Object probe = this.probe(key);
+    SLNode<K, V>[] hot = this.hotNodes;
+    int hash = 0;
+    int slot = 0;
+    if (hot != null) {
+      hash = key.hashCode();
+      slot = (hash * 0x9E3779B9) >>> this.hotShift;
+      SLNode<K, V> cached = hot[slot];
+      if (cached != null && this.hotHashes[slot] == hash && this.compare(cached, probe) == 0) {
+        if (this.metrics != null) {
+          this.metrics.searched(op, 0, 0, 1);
+        } // if
+        return cached;
+      } // if the key is hot
+    } // if
+    SLNode<K, V> cur = this.head;
+    int hops = 0;
+    int comparisons = 0;
+    for (int level = this.height - 1; level > -1; level--) {
+      SLNode<K, V> next = cur.next[level];
+      while (next != null) {
+        int order = this.compare(next, probe);
+        comparisons++;
+        if (order == 0) {
+          if (this.metrics != null) {
+            this.metrics.searched(op, hops + 1, this.height - level, comparisons);
+          } // if
+          if (hot != null && hash == next.key.hashCode()) {
+            // A key that the comparator equates with another of a different hash is not cached,
+            // since unlink could not find its slot.
+            this.hotHashes[slot] = hash;
+            hot[slot] = next;
+          } // if
+          return next;
+        } else if (order > 0) {
+          break;
+        } // if/else
+        cur = next;
+        next = cur.next[level];
+        hops++;
+      } // while
+    } // for
+    if (this.metrics != null) {
+      this.metrics.searched(op, hops, this.height, comparisons);
+    } // if
+    return null;
+  } // find(K, Operation)
+
   /**
    * Search for node that has key, and return all the nodes that are supposed to point to the node
    * with key.
@@ -413,39 +1046,491 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    * @return nodes ArrayList<SLNode<K, V>>
    */
   public ArrayList<SLNode<K, V>> search(K key) {
-    SLNode<K, V> dummy = new SLNode<K, V>(this.front);
-    ArrayList<SLNode<K, V>> nodes = new ArrayList<SLNode<K, V>>();
-    for (int i = 0; i < this.height; i++) {
-      nodes.add(null);
+    SLNode<K, V>[] preds = this.predecessors(this.probe(key), SkipListMetrics.Operation.SEARCH);
+    ArrayList<SLNode<K, V>> nodes = new ArrayList<SLNode<K, V>>(this.height);
+    for (int level = 0; level < this.height; level++) {
+      nodes.add(preds[level]);
     } // for
+    return nodes;
+  }// search()
 
-    if (this.isEmpty()) {
-      for (int level = this.height - 1; level > -1; level--) {
-        SLNode<K, V> cur = dummy;
-        nodes.set(level, cur);
-        counter++;
-      }
-      return nodes;
-    } // if the list is empty
-
-    // Set up dummy node that points to front
+  /**
+   * Search for node that has the key whose probe is probe, and record in this.update the last
+   * node before that key on each level. The head stands in for the front pointers.
+   * 
+   * @return this.update, which is only valid until the next call
+   */
+  SLNode<K, V>[] predecessors(Object probe, SkipListMetrics.Operation op) {
+    if (this.indexed) {
+      return this.rankedPredecessors(probe, op);
+    } // if
+    SLNode<K, V>[] nodes = this.update;
+    SLNode<K, V> cur = this.head;
+    int hops = 0;
+    int stops = 0;
     for (int level = this.height - 1; level > -1; level--) {
-      SLNode<K, V> cur = dummy;
-      while (cur.next(level) != null && this.comparator.compare(cur.next(level).key, key) < 0) {
-        cur = cur.next(level);
+      SLNode<K, V> next = cur.next[level];
+      while (next != null && this.compare(next, probe) < 0) {
+        cur = next;
+        next = cur.next[level];
+        hops++;
       } // while
-      nodes.set(level, cur);
-      counter++;
+      if (next != null) {
+        stops++;
+      } // if the level ended with a comparison
+      nodes[level] = cur;
     } // for
+    if (this.metrics != null) {
+      this.metrics.searched(op, hops, this.height, hops + stops);
+    } // if
     return nodes;
-  }// search()
+  } // predecessors(Object, Operation)
 
+  /**
+   * Find the node at position i, counting from 0.
+   */
+  SLNode<K, V> nodeAt(int i) {
+    if (i < 0 || i >= this.size) {
+      throw new IndexOutOfBoundsException("invalid position " + i);
+    } // if
+    SLNode<K, V> cur = this.head;
+    if (!this.indexed) {
+      for (int pos = 0; pos <= i; pos++) {
+        cur = cur.next[0];
+      } // for
+      return cur;
+    } // if
+    // Head has rank 0, so position i has rank i + 1.
+    int rank = 0;
+    for (int level = this.height - 1; level > -1; level--) {
+      while (cur.next[level] != null && rank + cur.width[level] <= i + 1) {
+        rank += cur.width[level];
+        cur = cur.next[level];
+      } // while
+    } // for
+    return cur;
+  } // nodeAt(int)
+
+  /**
+   * Fill this.update as predecessors does, and this.ranks with the rank of each predecessor.
+   */
+  SLNode<K, V>[] rankedPredecessors(Object probe, SkipListMetrics.Operation op) {
+    SLNode<K, V>[] nodes = this.update;
+    SLNode<K, V> cur = this.head;
+    int rank = 0;
+    int hops = 0;
+    int stops = 0;
+    for (int level = this.height - 1; level > -1; level--) {
+      SLNode<K, V> next = cur.next[level];
+      while (next != null && this.compare(next, probe) < 0) {
+        rank += cur.width[level];
+        cur = next;
+        next = cur.next[level];
+        hops++;
+      } // while
+      if (next != null) {
+        stops++;
+      } // if the level ended with a comparison
+      nodes[level] = cur;
+      this.ranks[level] = rank;
+    } // for
+    if (this.metrics != null) {
+      this.metrics.searched(op, hops, this.height, hops + stops);
+    } // if
+    return nodes;
+  } // rankedPredecessors(Object, Operation)
+
+  /**
+   * Raise the list to height h. The new levels of the update buffer start at the head.
+   */
+  void grow(int h) {
+    if (h > this.update.length) {
+      this.update = Arrays.copyOf(this.update, Math.max(h, 2 * this.update.length));
+      this.ranks = Arrays.copyOf(this.ranks, this.update.length);
+    } // if
+    this.head.next = Arrays.copyOf(this.head.next, Math.max(h, this.head.next.length));
+    if (this.indexed) {
+      this.head.width = Arrays.copyOf(this.head.width, this.head.next.length);
+    } // if
+    for (int level = this.height; level < h; level++) {
+      this.update[level] = this.head;
+      this.ranks[level] = 0;
+    } // for
+    this.height = h;
+  } // grow(int)
 
   /**
-   * Nodes in the skip list.
+   * Link a new node for key, whose probe is probe, after the predecessors in nodes (normally
+   * this.update), growing the list if the node is taller than it.
    */
-  @SuppressWarnings("hiding")
-  class SLNode<K, V> {
+  void insert(SLNode<K, V>[] nodes, K key, Object probe, V value) {
+    int h = Math.min(randomHeight(), this.maxHeight(this.size + 1));
+    if (h > this.height) {
+      this.grow(h);
+      nodes = this.update;
+    } // if
+    SLNode<K, V> node = this.newNode(key, probe, value, h);
+    for (int level = 0; level < h; level++) {
+      node.setNext(level, nodes[level].next(level));
+      nodes[level].setNext(level, node);
+    } // for
+    if (node.next[0] == null) {
+      this.tail = node;
+    } // if
+    if (this.indexed) {
+      int rank = this.ranks[0] + 1;
+      node.width = new int[h];
+      for (int level = 0; level < h; level++) {
+        SLNode<K, V> pred = nodes[level];
+        if (node.next[level] != null) {
+          // The old successor was pred.width past pred, and moves back one.
+          node.width[level] = this.ranks[level] + pred.width[level] + 1 - rank;
+        } // if
+        pred.width[level] = rank - this.ranks[level];
+      } // for
+      for (int level = h; level < this.height; level++) {
+        if (nodes[level].next[level] != null) {
+          nodes[level].width[level]++;
+        } // if the link now skips one more node
+      } // for
+    } // if
+    this.size++;
+  } // insert(SLNode<K, V>[], K, Object, V)
+
+  /**
+   * Unlink node, whose predecessors are in nodes, from every level.
+   */
+  void unlink(SLNode<K, V>[] nodes, SLNode<K, V> node) {
+    int h = node.next.length;
+    for (int level = 0; level < h; level++) {
+      if (this.indexed && node.next[level] != null) {
+        nodes[level].width[level] += node.width[level] - 1;
+      } // if
+      nodes[level].setNext(level, node.next(level));
+    } // for
+    if (this.indexed) {
+      for (int level = h; level < this.height; level++) {
+        if (nodes[level].next[level] != null) {
+          nodes[level].width[level]--;
+        } // if the link now skips one fewer node
+      } // for
+    } // if
+    if (node == this.tail) {
+      this.tail = (nodes[0] == this.head) ? null : nodes[0];
+    } // if
+    if (this.hotNodes != null) {
+      int slot = (node.key.hashCode() * 0x9E3779B9) >>> this.hotShift;
+      if (this.hotNodes[slot] == node) {
+        this.hotNodes[slot] = null;
+      } // if
+    } // if
+    this.size--;
+    this.shrink();
+  } // unlink(SLNode<K, V>[], SLNode<K, V>)
+
+  /**
+   * Point every level of this.update at the head, making it a finger that precedes every key.
+   */
+  SLNode<K, V>[] resetFinger() {
+    Arrays.fill(this.update, this.head);
+    Arrays.fill(this.ranks, 0);
+    return this.update;
+  } // resetFinger()
+
+  /**
+   * Move a finger forward so that it holds the predecessors of the key whose probe is probe. The
+   * finger must hold the predecessors of some key no greater than that key. Only the levels whose
+   * next node is still before the key are stale, and those are always the lowest ones, so we
+   * climb until the finger is good and then descend from there.
+   */
+  SLNode<K, V>[] advance(SLNode<K, V>[] finger, Object probe, SkipListMetrics.Operation op) {
+    int top = -1;
+    int comparisons = 0;
+    while (top + 1 < this.height) {
+      SLNode<K, V> next = finger[top + 1].next[top + 1];
+      if (next == null) {
+        break;
+      } // if
+      comparisons++;
+      if (this.compare(next, probe) >= 0) {
+        break;
+      } // if the finger is good from here up
+      top++;
+    } // while
+    int hops = 0;
+    SLNode<K, V> cur = (top < 0) ? null : finger[top];
+    for (int level = top; level > -1; level--) {
+      SLNode<K, V> next = cur.next[level];
+      while (next != null && this.compare(next, probe) < 0) {
+        cur = next;
+        next = cur.next[level];
+        hops++;
+        comparisons++;
+      } // while
+      if (next != null) {
+        comparisons++;
+      } // if the level ended with a comparison
+      finger[level] = cur;
+    } // for
+    if (this.metrics != null) {
+      this.metrics.searched(op, hops, top + 1, comparisons);
+    } // if
+    return finger;
+  } // advance(SLNode<K, V>[], Object, Operation)
+
+  /**
+   * Record in this.update the last node on each level (or the head, for an empty level).
+   */
+  SLNode<K, V>[] tails() {
+    SLNode<K, V>[] nodes = this.update;
+    SLNode<K, V> cur = this.head;
+    int rank = 0;
+    for (int level = this.height - 1; level > -1; level--) {
+      while (cur.next[level] != null) {
+        if (this.indexed) {
+          rank += cur.width[level];
+        } // if
+        cur = cur.next[level];
+      } // while
+      nodes[level] = cur;
+      this.ranks[level] = rank;
+    } // for
+    return nodes;
+  } // tails()
+
+  /**
+   * Link a new node of height h after the last node of each of its levels, as recorded in tails
+   * (normally this.update), and make it the new tail of those levels. The key, whose probe is
+   * probe, must be greater than every key in the list.
+   *
+   * @return the tails, which may have moved if the list grew
+   */
+  SLNode<K, V>[] append(SLNode<K, V>[] tails, K key, Object probe, V value, int h) {
+    SLNode<K, V> node = this.newNode(key, probe, value, h);
+    if (this.indexed) {
+      node.width = new int[h];
+    } // if
+    return this.link(tails, node);
+  } // append(SLNode<K, V>[], K, Object, V, int)
+
+  /**
+   * Link node, whose tower is empty, after the last node of each of its levels, as append does.
+   *
+   * @return the tails, which may have moved if the list grew
+   */
+  SLNode<K, V>[] link(SLNode<K, V>[] tails, SLNode<K, V> node) {
+    int h = node.next.length;
+    if (h > this.height) {
+      this.grow(h);
+      tails = this.update;
+    } // if
+    int rank = this.size + 1;
+    for (int level = 0; level < h; level++) {
+      tails[level].next[level] = node;
+      if (this.indexed) {
+        tails[level].width[level] = rank - this.ranks[level];
+      } // if
+      tails[level] = node;
+      this.ranks[level] = rank;
+    } // for
+    this.tail = node;
+    this.size++;
+    return tails;
+  } // link(SLNode<K, V>[], SLNode<K, V>)
+
+  /**
+   * Drop empty levels from the top of the list, and give back most of the front tower once it is
+   * mostly unused.
+   */
+  void shrink() {
+    while (this.height > 1 && this.head.next[this.height - 1] == null) {
+      this.height--;
+    } // while
+    while (this.head.next.length > INITIAL_HEIGHT && this.height < this.head.next.length / 4) {
+      this.head.next = Arrays.copyOf(this.head.next, this.head.next.length / 2);
+      if (this.indexed) {
+        this.head.width = Arrays.copyOf(this.head.width, this.head.next.length);
+      } // if
+    } // while
+  } // shrink()
+
+  /**
+   * Determine the tallest node worth building in a list of n values: log base 1/prob of n, plus
+   * a small margin, and never more than MAX_HEIGHT.
+   */
+  int maxHeight(int n) {
+    int levels;
+    if (this.prob == 0.5) {
+      levels = 32 - Integer.numberOfLeadingZeros(n);
+    } else if (this.prob > 0 && this.prob < 1) {
+      levels = (int) Math.ceil(Math.log(n) / -Math.log(this.prob));
+    } else {
+      levels = (this.prob >= 1) ? MAX_HEIGHT : 0;
+    } // if/else
+    return Math.min(MAX_HEIGHT, levels + HEIGHT_MARGIN);
+  } // maxHeight(int)
+
+  /**
+   * Get the height that the node at position i, counting from 1, has in a perfectly regular list:
+   * one more than the number of times 1/prob divides i.
+   */
+  int regularHeight(int i) {
+    if (this.prob == 0.5) {
+      return Integer.numberOfTrailingZeros(i) + 1;
+    } else if (!(this.prob > 0)) {
+      return 1;
+    } // if/else
+    int base = (int) Math.max(2, Math.round(1 / this.prob));
+    int h = 1;
+    while (i % base == 0) {
+      i /= base;
+      h++;
+    } // while
+    return h;
+  } // regularHeight(int)
+
+  /**
+   * Create an array that can hold a tower of n links.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <K, V> SLNode<K, V>[] newTower(int n) {
+    return (SLNode<K, V>[]) new SLNode[n];
+  } // newTower(int)
+
+
+  /**
+   * A view of the keys of the list in [lo, hi), where a null bound is unbounded.
+   */
+  class SubMap implements SimpleMap<K, V> {
+    /**
+     * The smallest key in the view (or null, for no bound).
+     */
+    final K lo;
+
+    /**
+     * The key after the largest key in the view (or null, for no bound).
+     */
+    final K hi;
+
+    /**
+     * Create a view of the list between lo and hi.
+     */
+    SubMap(K lo, K hi) {
+      if (lo != null && hi != null && SkipList.this.comparator.compare(lo, hi) > 0) {
+        throw new IllegalArgumentException("lo is greater than hi");
+      } // if
+      this.lo = lo;
+      this.hi = hi;
+    } // SubMap(K, K)
+
+    /**
+     * Determine if a key falls within the view.
+     */
+    boolean inRange(K key) {
+      return (this.lo == null || SkipList.this.comparator.compare(key, this.lo) >= 0)
+          && (this.hi == null || SkipList.this.comparator.compare(key, this.hi) < 0);
+    } // inRange(K)
+
+    /**
+     * Set the value associated with key.
+     *
+     * @throws IllegalArgumentException if the key is outside the view.
+     * @throws NullPointerException if the key is null.
+     */
+    @Override
+    public V set(K key, V value) {
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } else if (!this.inRange(key)) {
+        throw new IllegalArgumentException("key out of range");
+      } // if/else
+      return SkipList.this.set(key, value);
+    } // set(K, V)
+
+    @Override
+    public V get(K key) {
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } else if (!this.inRange(key)) {
+        throw new IndexOutOfBoundsException("invalid key");
+      } // if/else
+      return SkipList.this.get(key);
+    } // get(K)
+
+    /**
+     * Count the keys in the view. This walks the view, so it takes time linear in its size.
+     */
+    @Override
+    public int size() {
+      int count = 0;
+      for (Iterator<SLNode<K, V>> nit = SkipList.this.nodes(this.lo, this.hi); nit.hasNext();) {
+        nit.next();
+        count++;
+      } // for
+      return count;
+    } // size()
+
+    @Override
+    public boolean containsKey(K key) {
+      return this.inRange(key) && SkipList.this.containsKey(key);
+    } // containsKey(K)
+
+    @Override
+    public V remove(K key) {
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } // if
+      return this.inRange(key) ? SkipList.this.remove(key) : null;
+    } // remove(K)
+
+    @Override
+    public Iterator<K> keys() {
+      return new Iterator<K>() {
+        Iterator<SLNode<K, V>> nit = SkipList.this.nodes(SubMap.this.lo, SubMap.this.hi);
+
+        @Override
+        public boolean hasNext() {
+          return nit.hasNext();
+        } // hasNext()
+
+        @Override
+        public K next() {
+          return nit.next().key;
+        } // next()
+      };
+    } // keys()
+
+    @Override
+    public Iterator<V> values() {
+      return new Iterator<V>() {
+        Iterator<SLNode<K, V>> nit = SkipList.this.nodes(SubMap.this.lo, SubMap.this.hi);
+
+        @Override
+        public boolean hasNext() {
+          return nit.hasNext();
+        } // hasNext()
+
+        @Override
+        public V next() {
+          return nit.next().value;
+        } // next()
+      };
+    } // values()
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      for (Iterator<SLNode<K, V>> nit = SkipList.this.nodes(this.lo, this.hi); nit.hasNext();) {
+        SLNode<K, V> node = nit.next();
+        action.accept(node.key, node.value);
+      } // for
+    } // forEach(BiConsumer)
+  } // SubMap
+
+  /**
+   * Nodes in the skip list. Static, so a node carries no reference to its list, and its tower is
+   * an exact-size array rather than an ArrayList.
+   */
+  static class SLNode<K, V> {
 
     // +--------+------------------------------------------------------
     // | Fields |
@@ -462,14 +1547,16 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     V value;
 
     /**
-     * Pointers to the next nodes.
+     * Pointers to the next nodes. The height of the node is next.length.
      */
-    ArrayList<SLNode<K, V>> next;
+    SLNode<K, V>[] next;
 
     /**
-     * The height.
+     * In an indexed list, how many positions each link in next skips (meaningless where the link
+     * is null). Otherwise null.
      */
-    int height;
+    int[] width;
+
     // +--------------+------------------------------------------------
     // | Constructors |
     // +--------------+
@@ -480,26 +1567,9 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     public SLNode(K key, V value, int n) {
       this.key = key;
       this.value = value;
-      this.next = new ArrayList<SLNode<K, V>>(n);
-      for (int i = 0; i < n; i++) {
-        this.next.add(null);
-      } // for
-      this.height = n;
+      this.next = newTower(n);
     } // SLNode(K, V, int)
 
-    /**
-     * Create a new node with specified next.
-     * 
-     * @post this.key == null
-     * @post this.value == null
-     */
-    public SLNode(ArrayList<SLNode<K, V>> next) {
-      this.key = null;
-      this.value = null;
-      this.next = next;
-      this.height = next.size();
-    }// SLNode(next)
-
     // +---------+-----------------------------------------------------
     // | Methods |
     // +---------+
@@ -508,16 +1578,32 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
      * Get the next node at the specified level.
      */
     public SLNode<K, V> next(int level) {
-      counter++;
-      return this.next.get(level);
+      return this.next[level];
     } // next
 
     /**
      * Set the next node at the specified level.
      */
     public void setNext(int level, SLNode<K, V> next) {
-      counter++;
-      this.next.set(level, next);
+      this.next[level] = next;
     } // setNext(int, SLNode<K,V>)
   } // SLNode<K,V>
+
+  /**
+   * Nodes in a list with a sort key, which also hold the form their key is compared by.
+   */
+  static class SortKeyNode<K, V> extends SLNode<K, V> {
+    /**
+     * The sort key of this node's key.
+     */
+    Comparable<Object> form;
+
+    /**
+     * Create a new node of height n with the specified key, value and sort key.
+     */
+    public SortKeyNode(K key, V value, int n, Comparable<Object> form) {
+      super(key, value, n);
+      this.form = form;
+    } // SortKeyNode(K, V, int, Comparable<Object>)
+  } // SortKeyNode<K,V>
 }
@@ -0,0 +1,481 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A skip list that holds at most a fixed weight of entries, evicting by a pluggable policy (LRU,
+ * LFU, TTL or another EvictionPolicy) once it is over. Each value is kept in an Entry that the
+ * policy links into its own order, so the bookkeeping for an access is O(1); the keys stay in a
+ * SkipList, so iteration and range reads are in order as usual. They do not count as accesses,
+ * and they skip expired entries.
+ *
+ * The cache counts hits and misses of get and the entries it evicts, and tells listeners about
+ * each eviction. Expired entries are dropped when they are next read or written, and up to the
+ * first live one whenever a value is set; until then they count towards size and weight. Like
+ * SkipList, a cache is not safe for use by several threads at once.
+ */
+public class SkipListCache<K, V> implements SimpleMap<K, V> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The entries, by key.
+   */
+  final SkipList<K, Entry<K, V>> list;
+
+  /**
+   * Which entry to evict.
+   */
+  final EvictionPolicy<K, V> policy;
+
+  /**
+   * The weight of an entry.
+   */
+  final ToIntBiFunction<? super K, ? super V> weigher;
+
+  /**
+   * The most weight the cache holds once a set returns.
+   */
+  final long maxWeight;
+
+  /**
+   * The total weight of the entries.
+   */
+  long weight;
+
+  /**
+   * The number of gets that found a live entry.
+   */
+  long hits;
+
+  /**
+   * The number of gets that did not.
+   */
+  long misses;
+
+  /**
+   * The number of entries evicted for weight or expired.
+   */
+  long evictions;
+
+  /**
+   * Who to tell about evictions.
+   */
+  final ArrayList<Listener<? super K, ? super V>> listeners =
+      new ArrayList<Listener<? super K, ? super V>>();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a cache of at most maxEntries entries, ordered by comparator.
+   */
+  public SkipListCache(Comparator<K> comparator, long maxEntries, EvictionPolicy<K, V> policy) {
+    this(comparator, (k, v) -> 1, maxEntries, policy);
+  } // SkipListCache(Comparator<K>, long, EvictionPolicy)
+
+  /**
+   * Create a cache, ordered by comparator, whose entries weigh at most maxWeight in all, by
+   * weigher, which must not return a negative weight.
+   */
+  public SkipListCache(Comparator<K> comparator, ToIntBiFunction<? super K, ? super V> weigher,
+      long maxWeight, EvictionPolicy<K, V> policy) {
+    if (maxWeight < 0) {
+      throw new IllegalArgumentException("negative maximum weight " + maxWeight);
+    } // if
+    this.list = new SkipList<K, Entry<K, V>>(comparator);
+    this.weigher = weigher;
+    this.maxWeight = maxWeight;
+    this.policy = policy;
+  } // SkipListCache(Comparator<K>, ToIntBiFunction, long, EvictionPolicy)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key. Expired entries are evicted and, while the cache would be
+   * over its maximum weight, the policy's victims: before a new entry is added, so that it is not
+   * its own victim, and after an entry gets a new value. A value heavier than the maximum could
+   * never fit, so it is evicted at once without trimming, leaving the other entries alone; the
+   * key's previous value, if any, is removed.
+   *
+   * @return the previous value associated with key (or null, if there's no such value)
+   * @throws NullPointerException if the key is null.
+   * @throws IllegalArgumentException if the weigher returns a negative weight.
+   */
+  @Override
+  public V set(K key, V value) {
+    int w = this.weigher.applyAsInt(key, value);
+    if (w < 0) {
+      throw new IllegalArgumentException("negative weight " + w + " for " + key);
+    } // if
+    if (w > this.maxWeight) {
+      V old = this.remove(key);
+      this.evicted(key, value, Cause.SIZE);
+      return old;
+    } // if the value alone is too heavy
+    Entry<K, V> entry = this.live(this.list.find(key, SkipListMetrics.Operation.SET));
+    V old = null;
+    if (entry != null) {
+      old = entry.value;
+      entry.value = value;
+      this.weight += w - entry.weight;
+      entry.weight = w;
+      this.policy.updated(entry);
+      this.trim(0);
+    } else {
+      this.trim(w);
+      entry = new Entry<K, V>(key, value, w);
+      this.list.set(key, entry);
+      this.policy.added(entry);
+      this.weight += w;
+    } // if/else
+    return old;
+  } // set(K, V)
+
+  /**
+   * Get the value associated with key, counting a hit or a miss.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the map, or has expired.
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public V get(K key) {
+    Entry<K, V> entry = this.live(this.list.find(key, SkipListMetrics.Operation.GET));
+    if (entry == null) {
+      this.misses++;
+      throw new IndexOutOfBoundsException("invalid key");
+    } // if
+    this.hits++;
+    this.policy.accessed(entry);
+    return entry.value;
+  } // get(K)
+
+  /**
+   * Determine how many values are in the map, including expired ones not yet dropped.
+   */
+  @Override
+  public int size() {
+    return this.list.size();
+  } // size()
+
+  /**
+   * Determine if a key appears in the table, without counting an access.
+   */
+  @Override
+  public boolean containsKey(K key) {
+    return this.live(this.list.find(key, SkipListMetrics.Operation.CONTAINS)) != null;
+  } // containsKey(K)
+
+  /**
+   * Remove the value with the given key. This is not an eviction.
+   *
+   * @return The associated value (or null, if there is no associated value or it expired).
+   * @throws NullPointerException if the key is null.
+   */
+  @Override
+  public V remove(K key) {
+    Entry<K, V> entry = this.live(this.list.find(key, SkipListMetrics.Operation.REMOVE));
+    if (entry == null) {
+      return null;
+    } // if
+    this.list.remove(key);
+    this.policy.removed(entry);
+    this.weight -= entry.weight;
+    return entry.value;
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    Iterator<Map.Entry<K, V>> entries = this.range(null, null);
+    return new Iterator<K>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return entries.next().getKey();
+      } // next()
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    Iterator<Map.Entry<K, V>> entries = this.range(null, null);
+    return new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public V next() {
+        return entries.next().getValue();
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    this.list.forEach((key, entry) -> {
+      if (!this.policy.expired(entry)) {
+        action.accept(key, entry.value);
+      } // if
+    });
+  } // forEach(BiConsumer)
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Get an iterator for the live entries with lo <= key < hi, in order. A null bound is
+   * unbounded. Reading them does not count as accessing them.
+   */
+  public Iterator<Map.Entry<K, V>> range(K lo, K hi) {
+    Iterator<SkipList.SLNode<K, Entry<K, V>>> nodes = this.list.nodes(lo, hi);
+    return new Iterator<Map.Entry<K, V>>() {
+      /**
+       * The next live entry (or null, if there is none).
+       */
+      Entry<K, V> next = this.advance();
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public Map.Entry<K, V> next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        Entry<K, V> entry = this.next;
+        this.next = this.advance();
+        return new AbstractMap.SimpleImmutableEntry<K, V>(entry.key, entry.value);
+      } // next()
+
+      /**
+       * Find the next entry that has not expired.
+       */
+      Entry<K, V> advance() {
+        while (nodes.hasNext()) {
+          Entry<K, V> entry = nodes.next().value;
+          if (!SkipListCache.this.policy.expired(entry)) {
+            return entry;
+          } // if
+        } // while
+        return null;
+      } // advance()
+    };
+  } // range(K, K)
+
+  /**
+   * Tell listener about each entry evicted from now on, after it has been removed.
+   */
+  public void addListener(Listener<? super K, ? super V> listener) {
+    this.listeners.add(listener);
+  } // addListener(Listener)
+
+  /**
+   * Get the number of gets that found a live entry.
+   */
+  public long hits() {
+    return this.hits;
+  } // hits()
+
+  /**
+   * Get the number of gets that found no live entry.
+   */
+  public long misses() {
+    return this.misses;
+  } // misses()
+
+  /**
+   * Get the number of entries evicted, for weight or because they expired.
+   */
+  public long evictions() {
+    return this.evictions;
+  } // evictions()
+
+  /**
+   * Get the total weight of the entries, including expired ones not yet dropped.
+   */
+  public long weight() {
+    return this.weight;
+  } // weight()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the entry in a node, dropping it if it has expired.
+   *
+   * @return the entry (or null, if node is null or its entry expired)
+   */
+  Entry<K, V> live(SkipList.SLNode<K, Entry<K, V>> node) {
+    if (node == null) {
+      return null;
+    } else if (this.policy.expired(node.value)) {
+      this.evict(node.value, Cause.EXPIRED);
+      return null;
+    } // if/else
+    return node.value;
+  } // live(SLNode)
+
+  /**
+   * Evict expired entries, and then victims until room more weight fits.
+   */
+  void trim(int room) {
+    for (Entry<K, V> victim = this.policy.victim(); victim != null; victim = this.policy.victim()) {
+      if (this.policy.expired(victim)) {
+        this.evict(victim, Cause.EXPIRED);
+      } else if (this.weight + room > this.maxWeight) {
+        this.evict(victim, Cause.SIZE);
+      } else {
+        break;
+      } // if/else
+    } // for
+  } // trim(int)
+
+  /**
+   * Remove an entry and tell the listeners.
+   */
+  void evict(Entry<K, V> entry, Cause cause) {
+    this.list.remove(entry.key);
+    this.policy.removed(entry);
+    this.weight -= entry.weight;
+    this.evicted(entry.key, entry.value, cause);
+  } // evict(Entry, Cause)
+
+  /**
+   * Count an eviction and tell the listeners.
+   */
+  void evicted(K key, V value, Cause cause) {
+    this.evictions++;
+    for (Listener<? super K, ? super V> listener : this.listeners) {
+      listener.evicted(key, value, cause);
+    } // for
+  } // evicted(K, V, Cause)
+
+  // +--------------+------------------------------------------------
+  // | Nested types |
+  // +--------------+
+
+  /**
+   * Why an entry was evicted.
+   */
+  public enum Cause {
+    /**
+     * The cache was over its maximum weight.
+     */
+    SIZE,
+
+    /**
+     * The entry expired.
+     */
+    EXPIRED
+  } // Cause
+
+  /**
+   * Hears about evictions.
+   */
+  @FunctionalInterface
+  public interface Listener<K, V> {
+    /**
+     * Note that the entry for key, which held value, was evicted.
+     */
+    public void evicted(K key, V value, Cause cause);
+  } // Listener<K, V>
+
+  /**
+   * A cached value, with the links and counters that eviction policies keep it by.
+   */
+  public static class Entry<K, V> {
+    /**
+     * The key.
+     */
+    final K key;
+
+    /**
+     * The value.
+     */
+    V value;
+
+    /**
+     * The weight.
+     */
+    int weight;
+
+    /**
+     * The previous entry in the policy's order.
+     */
+    Entry<K, V> prev;
+
+    /**
+     * The next entry in the policy's order.
+     */
+    Entry<K, V> next;
+
+    /**
+     * How often the entry was used, for policies that count.
+     */
+    int count;
+
+    /**
+     * When the entry was written, for policies that expire.
+     */
+    long stamp;
+
+    /**
+     * Create an entry.
+     */
+    Entry(K key, V value, int weight) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+    } // Entry(K, V, int)
+
+    /**
+     * Create the sentinel of an empty circular list.
+     */
+    static <K, V> Entry<K, V> sentinel() {
+      Entry<K, V> head = new Entry<K, V>(null, null, 0);
+      head.prev = head;
+      head.next = head;
+      return head;
+    } // sentinel()
+
+    /**
+     * Link this entry in after another.
+     */
+    void linkAfter(Entry<K, V> before) {
+      this.prev = before;
+      this.next = before.next;
+      before.next.prev = this;
+      before.next = this;
+    } // linkAfter(Entry)
+
+    /**
+     * Unlink this entry from its neighbours.
+     */
+    void unlink() {
+      this.prev.next = this.next;
+      this.next.prev = this.prev;
+      this.prev = null;
+      this.next = null;
+    } // unlink()
+  } // Entry<K, V>
+} // SkipListCache<K, V>
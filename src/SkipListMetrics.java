@@ -0,0 +1,33 @@
+/**
+ * Receives measurements from a skip list's searches and allocations. A list reports to at most
+ * one SkipListMetrics, and none by default; with none it skips the reporting entirely.
+ *
+ * Calls come from whichever thread is using the list, so an implementation that is read from
+ * another thread must be thread safe.
+ */
+@FunctionalInterface
+public interface SkipListMetrics {
+
+  /**
+   * The operations that search the list.
+   */
+  public enum Operation {
+    GET, CONTAINS, SET, REMOVE, SEARCH, GET_ALL, SET_ALL
+  } // Operation
+
+  /**
+   * Record one search.
+   *
+   * @param op the operation that searched
+   * @param hops the number of links followed forward
+   * @param levels the number of levels visited on the way down
+   * @param comparisons the number of keys compared
+   */
+  public void searched(Operation op, int hops, int levels, int comparisons);
+
+  /**
+   * Record the creation of a node with the given height.
+   */
+  public default void allocated(int height) {} // allocated(int)
+
+} // SkipListMetrics
@@ -0,0 +1,280 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves a skip list to a compact binary snapshot and loads it back. Keys and values are encoded
+ * by codecs, and each node's height can be stored too, so that the restored list has exactly the
+ * shape of the saved one. Restoring appends each entry after the last, in one pass with no
+ * searches.
+ *
+ * A snapshot is a header (the magic number, the version, the flags and the number of entries)
+ * followed by one record per entry, in order: the height as a byte if heights are stored, then
+ * the key and the value, each as an int length and that many bytes. A null value has length -1.
+ */
+public class SkipListSnapshot {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of a snapshot, "SKPL".
+   */
+  static final int MAGIC = 0x534B504C;
+
+  /**
+   * The version of the format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The flag that says each record starts with its node's height.
+   */
+  static final int HEIGHTS = 1;
+
+  /**
+   * The size of the header: magic, version, flags and count.
+   */
+  static final int HEADER_SIZE = 20;
+
+  /**
+   * The length stored for a null value.
+   */
+  static final int NULL_LENGTH = -1;
+
+  /**
+   * The initial size of the I/O buffer. It grows if a record does not fit.
+   */
+  static final int BUFFER_SIZE = 1 << 20;
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Write a snapshot of list to a file, replacing it if it exists.
+   *
+   * @return the number of bytes written
+   */
+  public static <K, V> long write(SkipList<K, V> list, Codec<? super K> keys,
+      Codec<? super V> values, boolean heights, Path file) throws IOException {
+    try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      return write(list, keys, values, heights, out);
+    } // try
+  } // write(SkipList, Codec, Codec, boolean, Path)
+
+  /**
+   * Write a snapshot of list to a channel, which is left open. If heights is true, the snapshot
+   * records the height of each node.
+   *
+   * @return the number of bytes written
+   */
+  public static <K, V> long write(SkipList<K, V> list, Codec<? super K> keys,
+      Codec<? super V> values, boolean heights, WritableByteChannel out) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(heights ? HEIGHTS : 0).putLong(list.size);
+    long written = 0;
+    for (SkipList.SLNode<K, V> node = list.head.next[0]; node != null; node = node.next[0]) {
+      int start = buffer.position();
+      while (true) {
+        try {
+          if (heights) {
+            buffer.put((byte) node.next.length);
+          } // if
+          encode(keys, node.key, buffer);
+          encode(values, node.value, buffer);
+          break;
+        } catch (BufferOverflowException e) {
+          buffer.position(start);
+          if (start == 0) {
+            buffer = ByteBuffer.allocate(2 * buffer.capacity());
+          } else {
+            written += drain(buffer, out);
+          } // if/else
+          start = 0;
+        } // try/catch
+      } // while
+    } // for
+    return written + drain(buffer, out);
+  } // write(SkipList, Codec, Codec, boolean, WritableByteChannel)
+
+  /**
+   * Append the entries of the snapshot in a file to list.
+   *
+   * @see #read(SkipList, Codec, Codec, ReadableByteChannel)
+   */
+  public static <K, V> void read(SkipList<K, V> list, Codec<? extends K> keys,
+      Codec<? extends V> values, Path file) throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      read(list, keys, values, in);
+    } // try
+  } // read(SkipList, Codec, Codec, Path)
+
+  /**
+   * Append the entries of a snapshot to list, which must be empty or hold only keys less than
+   * those in the snapshot, normally with the comparator of the list that was saved. Nodes get
+   * their stored heights if the snapshot has them, and random heights otherwise.
+   *
+   * @throws IOException if the snapshot is truncated, corrupt, or out of order for the comparator.
+   */
+  public static <K, V> void read(SkipList<K, V> list, Codec<? extends K> keys,
+      Codec<? extends V> values, ReadableByteChannel in) throws IOException {
+    Reader reader = new Reader(in);
+    ByteBuffer buffer = reader.require(HEADER_SIZE);
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IOException("not a version " + VERSION + " skip list snapshot");
+    } // if
+    boolean heights = (buffer.getInt() & HEIGHTS) != 0;
+    long count = buffer.getLong();
+    SkipList.SLNode<K, V>[] tails = list.tails();
+    for (long i = 0; i < count; i++) {
+      int h;
+      if (heights) {
+        h = reader.require(1).get();
+        if (h < 1 || h > SkipList.MAX_HEIGHT) {
+          throw new IOException("corrupt snapshot: height " + h + " in entry " + i);
+        } // if
+      } else {
+        h = Math.min(list.randomHeight(), list.maxHeight(list.size + 1));
+      } // if/else
+      K key = reader.decode(keys);
+      if (key == null) {
+        throw new IOException("corrupt snapshot: null key in entry " + i);
+      } // if
+      Object probe = list.probe(key);
+      if (tails[0] != list.head && list.compare(tails[0], probe) >= 0) {
+        throw new IOException("snapshot key " + key + " does not follow " + tails[0].key);
+      } // if
+      V value = reader.decode(values);
+      tails = list.append(tails, key, probe, value, h);
+    } // for
+  } // read(SkipList, Codec, Codec, ReadableByteChannel)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Write the length of a value and then the value, with a placeholder length that is filled in
+   * once the codec is done.
+   */
+  static <T> void encode(Codec<? super T> codec, T value, ByteBuffer buffer) {
+    if (value == null) {
+      buffer.putInt(NULL_LENGTH);
+      return;
+    } // if
+    int at = buffer.position();
+    buffer.putInt(0);
+    codec.encode(value, buffer);
+    buffer.putInt(at, buffer.position() - at - Integer.BYTES);
+  } // encode(Codec, T, ByteBuffer)
+
+  /**
+   * Read a length and then a value of that length, as encode wrote them, with the codec limited
+   * to its own bytes.
+   */
+  static <T> T decode(Codec<? extends T> codec, ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == NULL_LENGTH) {
+      return null;
+    } // if
+    int limit = buffer.limit();
+    int end = buffer.position() + length;
+    buffer.limit(end);
+    T value = codec.decode(buffer, length);
+    buffer.limit(limit).position(end);
+    return value;
+  } // decode(Codec, ByteBuffer)
+
+  /**
+   * Write everything in a buffer to a channel and empty the buffer.
+   *
+   * @return the number of bytes written
+   */
+  static long drain(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+    buffer.flip();
+    long written = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    } // while
+    buffer.clear();
+    return written;
+  } // drain(ByteBuffer, WritableByteChannel)
+
+  /**
+   * Reads a channel through a buffer that always holds whole fields.
+   */
+  static class Reader {
+    /**
+     * The channel.
+     */
+    final ReadableByteChannel in;
+
+    /**
+     * The unread bytes, between position and limit.
+     */
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Read from a channel.
+     */
+    Reader(ReadableByteChannel in) {
+      this.in = in;
+      this.buffer.flip();
+    } // Reader(ReadableByteChannel)
+
+    /**
+     * Make sure the buffer holds at least n unread bytes, reading and growing it if need be.
+     *
+     * @return the buffer
+     * @throws EOFException if the channel ends first.
+     */
+    ByteBuffer require(int n) throws IOException {
+      if (this.buffer.remaining() >= n) {
+        return this.buffer;
+      } // if
+      if (n > this.buffer.capacity()) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(n, 2 * this.buffer.capacity()));
+        bigger.put(this.buffer);
+        this.buffer = bigger;
+      } else {
+        this.buffer.compact();
+      } // if/else
+      while (this.buffer.position() < n) {
+        if (this.in.read(this.buffer) < 0) {
+          throw new EOFException("snapshot ends in the middle of an entry");
+        } // if
+      } // while
+      this.buffer.flip();
+      return this.buffer;
+    } // require(int)
+
+    /**
+     * Read a length and then a value of that length.
+     */
+    <T> T decode(Codec<? extends T> codec) throws IOException {
+      int length = this.require(Integer.BYTES).getInt();
+      if (length == NULL_LENGTH) {
+        return null;
+      } else if (length < 0) {
+        throw new IOException("corrupt snapshot: length " + length);
+      } // if/else
+      ByteBuffer buffer = this.require(length);
+      int limit = buffer.limit();
+      int end = buffer.position() + length;
+      // The codec sees only its own bytes.
+      buffer.limit(end);
+      T value = codec.decode(buffer, length);
+      buffer.limit(limit).position(end);
+      return value;
+    } // decode(Codec)
+  } // Reader
+} // SkipListSnapshot
@@ -0,0 +1,135 @@
+/**
+ * A report on the shape of a skip list, from SkipList.stats(): how many nodes each level holds,
+ * how tall the towers are, and how long searches are compared with what the list's probability
+ * leads us to expect.
+ */
+public class SkipListStats {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of entries.
+   */
+  public final int size;
+
+  /**
+   * The number of levels in use.
+   */
+  public final int height;
+
+  /**
+   * The probability the list uses to keep a level.
+   */
+  public final double prob;
+
+  /**
+   * The number of nodes on each level, starting at level 0.
+   */
+  public final long[] levels;
+
+  /**
+   * The tallest tower.
+   */
+  public final int maxHeight;
+
+  /**
+   * The mean tower height (or 0, if the list is empty).
+   */
+  public final double meanHeight;
+
+  /**
+   * The mean number of steps, links followed plus levels visited, that a search for each key in
+   * the list takes (or 0, if the list is empty).
+   */
+  public final double meanPathLength;
+
+  /**
+   * The most steps a search for any key in the list takes.
+   */
+  public final long maxPathLength;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Collect the measurements of a list.
+   */
+  SkipListStats(int size, int height, double prob, long[] levels, double meanPathLength,
+      long maxPathLength) {
+    this.size = size;
+    this.height = height;
+    this.prob = prob;
+    this.levels = levels;
+    int top = 0;
+    long sum = 0;
+    for (int level = 0; level < levels.length; level++) {
+      if (levels[level] > 0) {
+        top = level + 1;
+      } // if
+      sum += levels[level];
+    } // for
+    this.maxHeight = top;
+    this.meanHeight = (size == 0) ? 0 : (double) sum / size;
+    this.meanPathLength = meanPathLength;
+    this.maxPathLength = maxPathLength;
+  } // SkipListStats(int, int, double, long[], double, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of nodes we expect on level, size * prob^level.
+   */
+  public double expectedLevel(int level) {
+    return this.size * Math.pow(this.prob, level);
+  } // expectedLevel(int)
+
+  /**
+   * Get the mean tower height we expect, 1 / (1 - prob).
+   */
+  public double expectedMeanHeight() {
+    return (this.prob > 0 && this.prob < 1) ? 1 / (1 - this.prob) : 1;
+  } // expectedMeanHeight()
+
+  /**
+   * Get the number of steps we expect a search to take: Pugh's bound of L / prob + 1 / (1 - prob),
+   * where L = log base 1/prob of size.
+   */
+  public double expectedPathLength() {
+    if (this.size < 2 || !(this.prob > 0 && this.prob < 1)) {
+      return this.size + 1;
+    } // if
+    double levels = Math.log(this.size) / -Math.log(this.prob);
+    return levels / this.prob + 1 / (1 - this.prob);
+  } // expectedPathLength()
+
+  /**
+   * Determine whether searches take noticeably longer than expected: more than factor times the
+   * expected path length on average.
+   */
+  public boolean isDegraded(double factor) {
+    return this.meanPathLength > factor * this.expectedPathLength();
+  } // isDegraded(double)
+
+  /**
+   * Describe the list on several lines, with a row per level.
+   */
+  @Override
+  public String toString() {
+    StringBuilder str = new StringBuilder();
+    str.append(String.format("size %d, height %d, prob %s%n", this.size, this.height, this.prob));
+    str.append(String.format("tower height: max %d, mean %.3f (expected %.3f)%n", this.maxHeight,
+        this.meanHeight, this.expectedMeanHeight()));
+    str.append(String.format("search path: mean %.2f, max %d (expected %.2f)%n",
+        this.meanPathLength, this.maxPathLength, this.expectedPathLength()));
+    for (int level = this.levels.length - 1; level > -1; level--) {
+      str.append(String.format("level %2d: %12d nodes (expected %.1f)%n", level,
+          this.levels[level], this.expectedLevel(level)));
+    } // for
+    return str.toString();
+  } // toString()
+} // SkipListStats
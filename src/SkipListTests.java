@@ -1,6 +1,26 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 import static org.junit.Assert.*;
 import org.junit.Test;
 import org.junit.jupiter.api.BeforeEach;
@@ -391,6 +411,62 @@ public class SkipListTests {
     assertTrue(strings.containsKey("hello"));
   } // heightTest()
 
+  /**
+   * Verify that random heights follow the geometric distribution for several probabilities: the
+   * mean height should be about 1 / (1 - prob).
+   */
+  @Test
+  public void randomHeightTest() {
+    double[] probs = {0.0, 0.25, 0.5, 0.75};
+    for (double p : probs) {
+      long total = 0;
+      int trials = 100000;
+      for (int i = 0; i < trials; i++) {
+        int h = SkipList.randomHeight(p);
+        assertTrue(h >= 1);
+        total += h;
+      } // for
+      double mean = (double) total / trials;
+      assertTrue("mean height " + mean + " for prob " + p, Math.abs(mean - 1 / (1 - p)) < 0.1);
+    } // for
+    // A prob just under 1 still gives heights within MAX_HEIGHT.
+    for (int i = 0; i < 1000; i++) {
+      int h = SkipList.randomHeight(1 - 1e-12);
+      assertTrue(h >= 1 && h <= SkipList.MAX_HEIGHT);
+    } // for
+  } // randomHeightTest()
+
+  /**
+   * Verify that the list only uses as many levels as its nodes need, that the levels go away as
+   * nodes are removed, and that a high prob cannot build arbitrarily tall towers.
+   */
+  @Test
+  public void adaptiveHeightTest() {
+    setup();
+    assertTrue(ints.height == 1);
+    for (int i = 0; i < 10; i++) {
+      set(i);
+    } // for
+    assertTrue(ints.height <= ints.maxHeight(10));
+    for (int i = 0; i < 10; i++) {
+      remove(i);
+    } // for
+    assertTrue(ints.height == 1);
+    prob(0.99);
+    for (int i = 0; i < 1000; i++) {
+      set(i);
+    } // for
+    assertTrue(ints.height <= SkipList.MAX_HEIGHT);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(value(i).compareTo(get(i)) == 0);
+    } // for
+    for (int i = 0; i < 1000; i++) {
+      remove(i);
+    } // for
+    assertTrue(ints.height == 1);
+    assertTrue(ints.head.next.length <= SkipList.INITIAL_HEIGHT);
+  } // adaptiveHeightTest()
+
   /**
    * A permutation key test
    */
@@ -433,6 +509,1001 @@ public class SkipListTests {
     } // for
   } // sizeTest()
 
+  /**
+   * Verify that remove returns the removed value and that get rejects missing keys.
+   */
+  @Test
+  public void removeValueTest() {
+    setup();
+    for (int i = 0; i < 50; i++) {
+      set(i);
+    } // for
+    for (int i = 0; i < 50; i += 2) {
+      assertTrue(value(i).compareTo(ints.remove(i)) == 0);
+    } // for
+    assertTrue(ints.remove(0) == null);
+    assertTrue(ints.remove(1000) == null);
+    for (int i = 1; i < 50; i += 2) {
+      assertTrue(value(i).compareTo(get(i)) == 0);
+    } // for
+    try {
+      get(2);
+      fail("get of a removed key should throw");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    } // try/catch
+    assertTrue(25 == size());
+  } // removeValueTest()
+
+  // +-------------+-------------------------------------------------
+  // | Comparators |
+  // +-------------+
+
+  /**
+   * Verify that the default comparator orders Comparable keys naturally, so that 9 comes before
+   * 10.
+   */
+  @Test
+  public void naturalOrderTest() {
+    SkipList<Integer, String> natural = new SkipList<Integer, String>();
+    for (int i = 20; i > -20; i--) {
+      natural.set(i, value(Math.abs(i)));
+    } // for
+    assertTrue(inOrder(natural.keys()));
+    assertTrue(natural.firstKey() == -19);
+    assertTrue(value(9).equals(natural.get(9)));
+  } // naturalOrderTest()
+
+  /**
+   * Verify that a list with a sort key orders and finds keys by that sort key.
+   */
+  @Test
+  public void sortKeyTest() {
+    SkipList<String, String> folded = SkipList.withSortKey((String str) -> str.toLowerCase());
+    folded.set("Banana", "B");
+    folded.set("apple", "a");
+    folded.set("cherry", "c");
+    assertTrue("B".equals(folded.set("BANANA", "b")));
+    assertTrue(folded.size() == 3);
+    assertTrue("b".equals(folded.get("banana")));
+    assertTrue(folded.containsKey("APPLE"));
+    Iterator<String> keys = folded.keys();
+    assertTrue("apple".equals(keys.next()));
+    assertTrue("Banana".equals(keys.next()));
+    assertTrue("cherry".equals(keys.next()));
+    assertTrue("a".equals(folded.remove("Apple")));
+    assertTrue("Banana".equals(folded.floorKey("BZ")));
+
+    // A probe key that changes between searches is compared by its current form.
+    SkipList<StringBuilder, String> built = SkipList.withSortKey(StringBuilder::toString);
+    built.set(new StringBuilder("b"), "b");
+    StringBuilder probe = new StringBuilder("a");
+    assertFalse(built.containsKey(probe));
+    probe.replace(0, 1, "b");
+    assertTrue(built.containsKey(probe));
+  } // sortKeyTest()
+
+  // +--------------+------------------------------------------------
+  // | Bulk loading |
+  // +--------------+
+
+  /**
+   * Verify that a list loaded from sorted entries matches one built by set, and that it keeps
+   * working afterwards.
+   */
+  @Test
+  public void fromSortedTest() {
+    setup();
+    ArrayList<Map.Entry<Integer, String>> entries = new ArrayList<Map.Entry<Integer, String>>();
+    for (int i = 0; i < 1000; i += 1 + random.nextInt(3)) {
+      entries.add(new AbstractMap.SimpleEntry<Integer, String>(i, value(i)));
+      set(i);
+    } // for
+    SkipList<Integer, String> loaded = SkipList.fromSorted((i, j) -> i - j, entries.iterator());
+    assertTrue(loaded.size() == ints.size());
+    Iterator<Integer> expected = ints.keys();
+    Iterator<Integer> actual = loaded.keys();
+    while (expected.hasNext()) {
+      Integer key = expected.next();
+      assertTrue(key.equals(actual.next()));
+      assertTrue(value(key).equals(loaded.get(key)));
+    } // while
+    assertFalse(actual.hasNext());
+    // Appending more keys, then mixing in ordinary updates, keeps the list consistent.
+    loaded.bulkLoad(Collections.singletonMap(5000, value(5000)).entrySet().iterator());
+    loaded.set(-1, "negative one");
+    loaded.remove(0);
+    assertTrue(inOrder(loaded.keys()));
+    assertTrue(value(5000).equals(loaded.get(5000)));
+    assertTrue("negative one".equals(loaded.get(-1)));
+  } // fromSortedTest()
+
+  /**
+   * Verify that bulk loading rejects keys that are out of order.
+   */
+  @Test
+  public void fromSortedOrderTest() {
+    setup();
+    set(10);
+    try {
+      ints.bulkLoad(Collections.singletonMap(3, value(3)).entrySet().iterator());
+      fail("bulkLoad accepted a key smaller than the last one");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    } // try/catch
+    assertFalse(ints.containsKey(3));
+  } // fromSortedOrderTest()
+
+  /**
+   * Verify that batched gets and sets agree with single gets and sets, for sorted, clustered and
+   * unsorted batches.
+   */
+  @Test
+  public void batchTest() {
+    setup();
+    ArrayList<Map.Entry<Integer, String>> entries = new ArrayList<Map.Entry<Integer, String>>();
+    for (int i = 0; i < 500; i += 2) {
+      entries.add(new AbstractMap.SimpleEntry<Integer, String>(i, value(i)));
+    } // for
+    // Shuffle the second half so the finger has to restart.
+    Collections.shuffle(entries.subList(200, 250), random);
+    ints.setAll(entries);
+    assertTrue(ints.size() == 250);
+    assertTrue(inOrder(ints.keys()));
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < 600; i += 1 + random.nextInt(5)) {
+      keys.add(i);
+    } // for
+    keys.add(3);
+    List<String> values = ints.getAll(keys);
+    for (int i = 0; i < keys.size(); i++) {
+      int key = keys.get(i);
+      assertTrue(Objects.equals(values.get(i), ints.containsKey(key) ? get(key) : null));
+    } // for
+  } // batchTest()
+
+  // +-------------+-------------------------------------------------
+  // | Range scans |
+  // +-------------+
+
+  /**
+   * Verify that range and the submap views see exactly the keys in their bounds.
+   */
+  @Test
+  public void rangeTest() {
+    setup();
+    for (int i = 0; i < 200; i += 2) {
+      set(i);
+    } // for
+    Iterator<Map.Entry<Integer, String>> range = ints.range(51, 61);
+    for (int i = 52; i < 61; i += 2) {
+      Map.Entry<Integer, String> entry = range.next();
+      assertTrue(entry.getKey() == i);
+      assertTrue(value(i).equals(entry.getValue()));
+    } // for
+    assertFalse(range.hasNext());
+    assertFalse(ints.range(300, null).hasNext());
+    assertTrue(ints.headMap(10).size() == 5);
+    assertTrue(ints.tailMap(190).size() == 5);
+    assertTrue(ints.subMap(null, null).size() == ints.size());
+
+    SimpleMap<Integer, String> sub = ints.subMap(100, 150);
+    assertTrue(sub.size() == 25);
+    assertTrue(inOrder(sub.keys()));
+    assertFalse(sub.containsKey(98));
+    assertTrue(sub.containsKey(100));
+    assertFalse(sub.containsKey(150));
+    assertTrue(sub.remove(20) == null);
+    assertTrue(ints.containsKey(20));
+    sub.set(101, "write through");
+    assertTrue("write through".equals(get(101)));
+    try {
+      sub.set(150, "out of range");
+      fail("set outside the view should throw");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    } // try/catch
+  } // rangeTest()
+
+  /**
+   * Verify first, last, floor and ceiling against a sorted model, and drain the list with
+   * pollFirst.
+   */
+  @Test
+  public void navigationTest() {
+    setup();
+    ArrayList<Integer> model = new ArrayList<Integer>();
+    for (int i = 0; i < 300; i++) {
+      int key = random.nextInt(1000);
+      int pos = Collections.binarySearch(model, key);
+      if (random.nextInt(4) > 0) {
+        set(key);
+        if (pos < 0) {
+          model.add(-pos - 1, key);
+        } // if
+      } else {
+        remove(key);
+        if (pos >= 0) {
+          model.remove(pos);
+        } // if
+      } // if/else
+      if (!model.isEmpty()) {
+        assertTrue(ints.firstKey().equals(model.get(0)));
+        assertTrue(ints.lastKey().equals(model.get(model.size() - 1)));
+      } // if
+      int probe = random.nextInt(1100) - 50;
+      int at = Collections.binarySearch(model, probe);
+      int floor = (at >= 0) ? at : -at - 2;
+      int ceiling = (at >= 0) ? at : -at - 1;
+      assertTrue(Objects.equals(ints.floorKey(probe), floor < 0 ? null : model.get(floor)));
+      assertTrue(Objects.equals(ints.ceilingKey(probe),
+          ceiling >= model.size() ? null : model.get(ceiling)));
+    } // for
+    for (Integer key : model) {
+      Map.Entry<Integer, String> first = ints.pollFirst();
+      assertTrue(first.getKey().equals(key));
+      assertTrue(value(key).equals(first.getValue()));
+    } // for
+    assertTrue(ints.pollFirst() == null);
+    assertTrue(ints.isEmpty());
+    try {
+      ints.lastKey();
+      fail("lastKey of an empty list should throw");
+    } catch (NoSuchElementException e) {
+      // Expected
+    } // try/catch
+  } // navigationTest()
+
+  // +--------------------+------------------------------------------
+  // | Positional queries |
+  // +--------------------+
+
+  /**
+   * Verify rank, select and slice on an indexed list as random sets and removes rewrite its
+   * links, and on an unindexed list, which answers the same queries by walking.
+   */
+  @Test
+  public void indexedTest() {
+    SkipList<Integer, String> indexed = new SkipList<Integer, String>((i, j) -> i - j, true);
+    SkipList<Integer, String> plain = new SkipList<Integer, String>((i, j) -> i - j);
+    ArrayList<Integer> model = new ArrayList<Integer>();
+    for (int i = 0; i < 2000; i++) {
+      int key = random.nextInt(500);
+      int pos = Collections.binarySearch(model, key);
+      if (random.nextInt(3) > 0) {
+        indexed.set(key, value(key));
+        plain.set(key, value(key));
+        if (pos < 0) {
+          model.add(-pos - 1, key);
+        } // if
+      } else {
+        indexed.remove(key);
+        plain.remove(key);
+        if (pos >= 0) {
+          model.remove(pos);
+        } // if
+      } // if/else
+      if (i % 100 == 0) {
+        for (int j = 0; j < model.size(); j++) {
+          assertTrue(indexed.select(j).equals(model.get(j)));
+          assertTrue(indexed.rank(model.get(j)) == j);
+          assertTrue(plain.select(j).equals(model.get(j)));
+        } // for
+        int missing = 1000 + i;
+        assertTrue(indexed.rank(missing) == model.size());
+        assertTrue(plain.rank(missing) == model.size());
+      } // if
+    } // for
+    int from = model.size() / 3;
+    int to = 2 * model.size() / 3;
+    Iterator<Map.Entry<Integer, String>> slice = indexed.slice(from, to);
+    for (int j = from; j < to; j++) {
+      assertTrue(slice.next().getKey().equals(model.get(j)));
+    } // for
+    assertFalse(slice.hasNext());
+    if (!model.isEmpty()) {
+      assertTrue(indexed.pollFirst().getKey().equals(model.remove(0)));
+      for (int j = 0; j < model.size(); j++) {
+        assertTrue(indexed.select(j).equals(model.get(j)));
+      } // for
+    } // if
+    // A bulk load into an indexed list sets up its widths too.
+    SkipList<Integer, String> loaded = new SkipList<Integer, String>((i, j) -> i - j, true);
+    loaded.bulkLoad(indexed.range(null, null));
+    for (int j = 0; j < model.size(); j++) {
+      assertTrue(loaded.select(j).equals(model.get(j)));
+    } // for
+  } // indexedTest()
+
+  // +--------------------+------------------------------------------
+  // | Primitive variants |
+  // +--------------------+
+
+  /**
+   * Verify that an IntSkipList agrees with a SkipList of Integers under random operations.
+   */
+  @Test
+  public void intSkipListTest() {
+    setup();
+    IntSkipList<String> prims = new IntSkipList<String>();
+    for (int i = 0; i < 1000; i++) {
+      int rand = random.nextInt(200);
+      if (random.nextBoolean()) {
+        assertTrue(Objects.equals(prims.set(rand, value(rand)), ints.set(rand, value(rand))));
+      } else {
+        assertTrue(Objects.equals(prims.remove(rand), ints.remove(rand)));
+      } // if/else
+      assertTrue(prims.size() == ints.size());
+    } // for
+    Iterator<Integer> expected = ints.keys();
+    PrimitiveIterator.OfInt actual = prims.keys();
+    while (expected.hasNext()) {
+      int key = expected.next();
+      assertTrue(actual.nextInt() == key);
+      assertTrue(prims.containsKey(key));
+      assertTrue(prims.get(key).equals(ints.get(key)));
+    } // while
+    assertFalse(actual.hasNext());
+  } // intSkipListTest()
+
+  /**
+   * Verify that a LongSkipList keeps keys beyond the int range in order.
+   */
+  @Test
+  public void longSkipListTest() {
+    LongSkipList<String> prims = new LongSkipList<String>();
+    for (int i = 0; i < 100; i++) {
+      prims.set(Long.MAX_VALUE - i, value(i));
+      prims.set(Long.MIN_VALUE + i, value(i));
+    } // for
+    assertTrue(prims.size() == 200);
+    assertTrue(value(5).compareTo(prims.get(Long.MAX_VALUE - 5)) == 0);
+    assertFalse(prims.containsKey(0));
+    PrimitiveIterator.OfLong it = prims.keys();
+    long prev = it.nextLong();
+    while (it.hasNext()) {
+      long next = it.nextLong();
+      assertTrue(prev < next);
+      prev = next;
+    } // while
+  } // longSkipListTest()
+
+  // +----------------+----------------------------------------------
+  // | Off-heap lists |
+  // +----------------+
+
+  /**
+   * Verify that an OffHeapSkipList agrees with a SkipList of Strings, before and after
+   * compaction. Small chunks make the arena span several buffers.
+   */
+  @Test
+  public void offHeapTest() {
+    setup();
+    OffHeapSkipList bytes = new OffHeapSkipList(10);
+    for (int i = 0; i < 500; i++) {
+      String key = value(random.nextInt(300));
+      byte[] raw = key.getBytes(StandardCharsets.UTF_8);
+      if (random.nextInt(3) == 0) {
+        byte[] removed = bytes.remove(raw);
+        String expected = strings.remove(key);
+        assertTrue(expected == null ? removed == null
+            : expected.equals(new String(removed, StandardCharsets.UTF_8)));
+      } else {
+        bytes.set(raw, value(key).getBytes(StandardCharsets.UTF_8));
+        set(key);
+      } // if/else
+    } // for
+    for (int round = 0; round < 2; round++) {
+      assertTrue(bytes.size() == strings.size());
+      Iterator<String> expected = strings.keys();
+      Iterator<byte[]> actual = bytes.keys();
+      while (expected.hasNext()) {
+        String key = expected.next();
+        byte[] raw = actual.next();
+        assertTrue(key.equals(new String(raw, StandardCharsets.UTF_8)));
+        assertTrue(value(key).equals(new String(bytes.get(raw), StandardCharsets.UTF_8)));
+      } // while
+      assertFalse(actual.hasNext());
+      bytes.compact();
+      assertTrue(bytes.garbageBytes() == 0);
+    } // for
+
+    // An entry too big for a chunk is refused, and the garbage count stays exact.
+    byte[] key = {1};
+    byte[] small = {2, 3};
+    byte[] huge = new byte[2000];
+    bytes.set(key, small);
+    try {
+      bytes.set(key, huge);
+      fail("value larger than a chunk");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    } // try/catch
+    assertTrue(bytes.garbageBytes() == 0);
+    assertTrue(Arrays.equals(small, bytes.get(key)));
+    try {
+      bytes.set(huge, small);
+      fail("key larger than a chunk");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    } // try/catch
+    assertTrue(bytes.garbageBytes() == OffHeapSkipList.recordSize(small.length));
+    assertFalse(bytes.containsKey(huge));
+  } // offHeapTest()
+
+  @Test
+  public void metricsTest() {
+    int[] calls = new int[1];
+    SkipList<Integer, String> list = new SkipList<Integer, String>((i, j) -> {
+      calls[0]++;
+      return i - j;
+    });
+    HistogramMetrics metrics = new HistogramMetrics();
+    list.setMetrics(metrics);
+    for (int i = 0; i < 1000; i++) {
+      list.set(2 * i, value(i));
+    } // for
+    for (int i = 0; i < 500; i++) {
+      list.set(2 * i, value(i));
+    } // for
+    calls[0] = 0;
+    for (int i = 0; i < 2000; i++) {
+      list.containsKey(i);
+    } // for
+    int containsCalls = calls[0];
+    list.remove(4);
+    list.getAll(Arrays.asList(1, 2, 3, 6));
+    HistogramMetrics.Snapshot snapshot = metrics.snapshot();
+    assertTrue(snapshot.count(SkipListMetrics.Operation.SET) == 1500);
+    assertTrue(snapshot.count(SkipListMetrics.Operation.CONTAINS) == 2000);
+    assertTrue(snapshot.count(SkipListMetrics.Operation.REMOVE) == 1);
+    assertTrue(snapshot.count(SkipListMetrics.Operation.GET_ALL) == 4);
+    assertTrue(snapshot.count(SkipListMetrics.Operation.GET) == 0);
+    assertTrue(Math.round(snapshot.meanComparisons(SkipListMetrics.Operation.CONTAINS)
+        * 2000) == containsCalls);
+    assertTrue(snapshot.meanLevels(SkipListMetrics.Operation.SET) >= 1);
+    assertTrue(snapshot.hopPercentile(SkipListMetrics.Operation.CONTAINS, 0.5)
+        <= snapshot.hopPercentile(SkipListMetrics.Operation.CONTAINS, 0.99));
+    assertTrue(snapshot.nodesAllocated() == 1000);
+    assertTrue(snapshot.heightHistogram()[0] == 0 && snapshot.heightHistogram()[1] > 0);
+    Map<String, Number> exported = snapshot.toMap();
+    assertTrue(exported.get("contains.count").longValue() == 2000);
+    assertTrue(exported.get("nodes.allocated").longValue() == 1000);
+    assertFalse(exported.containsKey("get.count"));
+
+    list.setMetrics(null);
+    list.get(2);
+    assertTrue(metrics.snapshot().count(SkipListMetrics.Operation.GET) == 0);
+    metrics.reset();
+    assertTrue(metrics.snapshot().nodesAllocated() == 0);
+  } // metricsTest()
+
+  @Test
+  public void statsTest() {
+    for (boolean indexed : new boolean[] {false, true}) {
+      SkipList<Integer, String> list = new SkipList<Integer, String>((i, j) -> i - j, indexed);
+      for (int i = 0; i < 4000; i++) {
+        list.set(random.nextInt(100000), value(i));
+      } // for
+      for (int i = 0; i < 60000; i++) {
+        list.remove(random.nextInt(100000));
+      } // for
+      long[] steps = new long[2];
+      list.setMetrics((op, hops, levels, comparisons) -> {
+        steps[0] += hops + levels;
+        steps[1] = Math.max(steps[1], hops + levels);
+      });
+      for (Iterator<Integer> keys = list.keys(); keys.hasNext();) {
+        list.search(keys.next());
+      } // for
+      list.setMetrics(null);
+      SkipListStats stats = list.stats();
+      assertTrue(stats.size == list.size());
+      assertTrue(stats.levels[0] == list.size());
+      assertTrue(stats.maxPathLength == steps[1]);
+      assertTrue(Math.abs(stats.meanPathLength * stats.size - steps[0]) < 1e-6);
+      assertTrue(stats.toString().contains("level  0"));
+
+      ArrayList<Integer> before = new ArrayList<Integer>();
+      list.keys().forEachRemaining(before::add);
+      list.rebalance();
+      ArrayList<Integer> after = new ArrayList<Integer>();
+      list.keys().forEachRemaining(after::add);
+      assertTrue(before.equals(after));
+      SkipListStats balanced = list.stats();
+      assertTrue(balanced.levels[1] == list.size() / 2);
+      assertFalse(balanced.isDegraded(1.0));
+      assertTrue(list.lastKey().equals(before.get(before.size() - 1)));
+      for (int i = 0; i < before.size(); i += 7) {
+        assertTrue(list.get(before.get(i)) != null);
+        assertTrue(list.rank(before.get(i)) == i);
+        assertTrue(list.select(i).equals(before.get(i)));
+      } // for
+      list.set(-1, "new");
+      assertTrue(list.firstKey() == -1 && list.rank(before.get(0)) == 1);
+    } // for
+    assertTrue(new SkipList<Integer, String>().stats().meanPathLength == 0);
+  } // statsTest()
+
+  @Test
+  public void visualizerTest() throws Exception {
+    SkipList<Integer, String> list = new SkipList<Integer, String>();
+    for (int i = 0; i < 10000; i++) {
+      list.set(2 * i, value(i));
+    } // for
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SkipListVisualizer.summary(list, 5, Channels.newChannel(bytes));
+    String[] lines = bytes.toString("UTF-8").split("\n");
+    assertTrue(lines.length == list.height + 1);
+    assertTrue(lines[lines.length - 1].endsWith(" 0 2 4 6 8 ..."));
+
+    bytes.reset();
+    SkipListVisualizer.window(list, 101, 20, SkipListVisualizer.Format.TEXT,
+        Channels.newChannel(bytes));
+    lines = bytes.toString("UTF-8").split("\n");
+    assertTrue(lines.length == 21);
+    assertTrue(lines[0].startsWith("       102-*"));
+
+    bytes.reset();
+    SkipListVisualizer.window(list, 19990, 20, SkipListVisualizer.Format.DOT,
+        Channels.newChannel(bytes));
+    String dot = bytes.toString("UTF-8");
+    assertTrue(dot.startsWith("digraph") && dot.contains("n0:l0 -> n1;"));
+    assertTrue(dot.contains("19998}") && !dot.contains("n5 "));
+
+    bytes.reset();
+    SkipListVisualizer.window(list, null, 3, SkipListVisualizer.Format.JSON,
+        Channels.newChannel(bytes));
+    String json = bytes.toString("UTF-8");
+    assertTrue(json.contains("{\"key\": \"0\", \"height\": "));
+    assertTrue(json.contains("\"next\": [\"2\""));
+    assertTrue(json.trim().endsWith("\"more\": true}"));
+    assertTrue(SkipListVisualizer.jsonEscape("a\"b\n").equals("a\\\"b\\u000a"));
+  } // visualizerTest()
+
+  @Test
+  public void snapshotTest() throws Exception {
+    File file = File.createTempFile("skiplist", ".snap");
+    try {
+      for (boolean heights : new boolean[] {false, true}) {
+        SkipList<Integer, String> list = new SkipList<Integer, String>((i, j) -> i - j, true);
+        for (int i = 0; i < 5000; i++) {
+          list.set(random.nextInt(20000), (i % 10 == 0) ? null : value(i));
+        } // for
+        StringBuilder big = new StringBuilder();
+        while (big.length() < 3 * SkipListSnapshot.BUFFER_SIZE) {
+          big.append(value(big.length() % 1000));
+        } // while
+        list.set(-1, big.toString());
+        long bytes = SkipListSnapshot.write(list, Codec.INT, Codec.STRING, heights, file.toPath());
+        assertTrue(bytes == file.length());
+
+        SkipList<Integer, String> copy = new SkipList<Integer, String>((i, j) -> i - j, true);
+        SkipListSnapshot.read(copy, Codec.INT, Codec.STRING, file.toPath());
+        assertTrue(copy.size() == list.size());
+        Iterator<Integer> expected = list.keys();
+        Iterator<Integer> actual = copy.keys();
+        while (expected.hasNext()) {
+          Integer key = expected.next();
+          assertTrue(key.equals(actual.next()));
+          assertTrue(Objects.equals(list.get(key), copy.get(key)));
+        } // while
+        assertTrue(copy.lastKey().equals(list.lastKey()));
+        assertTrue(copy.select(copy.size() / 2).equals(list.select(list.size() / 2)));
+        if (heights) {
+          assertTrue(Arrays.equals(copy.stats().levels, list.stats().levels));
+        } // if
+        copy.set(-2, "more");
+        assertTrue(copy.firstKey() == -2);
+      } // for
+
+      // A truncated snapshot is an error, as is one whose keys are out of order.
+      byte[] raw = java.nio.file.Files.readAllBytes(file.toPath());
+      java.nio.file.Files.write(file.toPath(), Arrays.copyOf(raw, raw.length - 3));
+      try {
+        SkipListSnapshot.read(new SkipList<Integer, String>(), Codec.INT, Codec.STRING,
+            file.toPath());
+        fail("truncated snapshot");
+      } catch (java.io.EOFException e) {
+        // Expected
+      } // try/catch
+      SkipList<Integer, String> reversed = new SkipList<Integer, String>((i, j) -> j - i);
+      reversed.set(1, "one");
+      reversed.set(2, "two");
+      SkipListSnapshot.write(reversed, Codec.INT, Codec.STRING, false, file.toPath());
+      try {
+        SkipListSnapshot.read(new SkipList<Integer, String>(), Codec.INT, Codec.STRING,
+            file.toPath());
+        fail("out of order");
+      } catch (java.io.IOException e) {
+        assertTrue(e.getMessage().contains("does not follow"));
+      } // try/catch
+    } finally {
+      file.delete();
+    } // try/finally
+  } // snapshotTest()
+
+  @Test
+  public void durableTest() throws Exception {
+    Path dir = Files.createTempDirectory("durable");
+    Path log = dir.resolve("log");
+    try {
+      Map<Integer, String> expected = new TreeMap<Integer, String>();
+      DurableSkipList<Integer, String> list =
+          new DurableSkipList<Integer, String>(log, (i, j) -> i - j, Codec.INT, Codec.STRING);
+      for (int i = 0; i < 300; i++) {
+        int key = random.nextInt(100);
+        if (random.nextInt(3) == 0) {
+          assertTrue(Objects.equals(list.remove(key), expected.remove(key)));
+        } else {
+          assertTrue(Objects.equals(list.set(key, value(i)), expected.put(key, value(i))));
+        } // if/else
+      } // for
+      list.close();
+
+      // Reopening replays the log; a checkpoint folds it into a snapshot.
+      list = new DurableSkipList<Integer, String>(log, (i, j) -> i - j, Codec.INT, Codec.STRING,
+          false, 0);
+      assertTrue(list.size() == expected.size());
+      list.checkpoint();
+      assertTrue(Files.size(log) == DurableSkipList.HEADER_SIZE);
+      Thread[] writers = new Thread[4];
+      for (int t = 0; t < writers.length; t++) {
+        int base = 1000 * (t + 1);
+        DurableSkipList<Integer, String> shared = list;
+        writers[t] = new Thread(() -> {
+          for (int i = 0; i < 200; i++) {
+            shared.set(base + i, value(i));
+          } // for
+        });
+        writers[t].start();
+      } // for
+      for (Thread writer : writers) {
+        writer.join();
+      } // for
+      for (int t = 0; t < writers.length; t++) {
+        for (int i = 0; i < 200; i++) {
+          expected.put(1000 * (t + 1) + i, value(i));
+        } // for
+      } // for
+      list.close();
+
+      // A torn record at the end is dropped.
+      long good = Files.size(log);
+      Files.write(log, new byte[] {0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+      list = new DurableSkipList<Integer, String>(log, (i, j) -> i - j, Codec.INT, Codec.STRING);
+      assertTrue(Files.size(log) == good);
+      assertTrue(list.size() == expected.size());
+      Iterator<Integer> keys = list.keys();
+      for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+        Integer key = keys.next();
+        assertTrue(key.equals(entry.getKey()));
+        assertTrue(list.get(key).equals(entry.getValue()));
+      } // for
+      assertFalse(keys.hasNext());
+      list.close();
+      try {
+        list.set(1, "closed");
+        fail("set after close");
+      } catch (IllegalStateException e) {
+        // Expected
+      } // try/catch
+      try {
+        list.remove(-1);
+        fail("remove after close");
+      } catch (IllegalStateException e) {
+        // Expected, even though the key is absent
+      } // try/catch
+
+      // A codec that fails part way through a record leaves nothing behind in the log.
+      Codec<String> picky = new Codec<String>() {
+        @Override
+        public void encode(String value, ByteBuffer out) {
+          out.put((byte) 1);
+          if (value.equals("bad")) {
+            throw new IllegalArgumentException("bad value");
+          } // if
+          Codec.STRING.encode(value, out);
+        } // encode(String, ByteBuffer)
+
+        @Override
+        public String decode(ByteBuffer in, int length) {
+          in.get();
+          return Codec.STRING.decode(in, length - 1);
+        } // decode(ByteBuffer, int)
+      };
+      Path pickyLog = dir.resolve("picky");
+      list = new DurableSkipList<Integer, String>(pickyLog, (i, j) -> i - j, Codec.INT, picky);
+      list.set(1, "one");
+      try {
+        list.set(2, "bad");
+        fail("set of a value the codec rejects");
+      } catch (IllegalArgumentException e) {
+        // Expected
+      } // try/catch
+      list.set(3, "three");
+      list.set(4, "four");
+      list.close();
+      list = new DurableSkipList<Integer, String>(pickyLog, (i, j) -> i - j, Codec.INT, picky);
+      assertTrue(list.size() == 3 && !list.containsKey(2));
+      assertTrue(list.get(4).equals("four"));
+      list.close();
+    } finally {
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path file : files.toArray(Path[]::new)) {
+          Files.delete(file);
+        } // for
+      } // try
+      Files.delete(dir);
+    } // try/finally
+  } // durableTest()
+
+  @Test
+  public void memTableTest() throws Exception {
+    Path dir = Files.createTempDirectory("memtable");
+    try {
+      TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+      MemTable<Integer, String> table =
+          new MemTable<Integer, String>(dir, (i, j) -> i - j, Codec.INT, Codec.STRING, 50);
+      for (int i = 0; i < 2000; i++) {
+        int key = random.nextInt(500);
+        if (random.nextInt(4) == 0) {
+          assertTrue(Objects.equals(table.remove(key), expected.remove(key)));
+        } else if (random.nextInt(2) == 0) {
+          assertTrue(Objects.equals(table.set(key, value(i % 1000)),
+              expected.put(key, value(i % 1000))));
+        } else {
+          table.put(key, value(i % 1000));
+          expected.put(key, value(i % 1000));
+        } // if/else
+        if (i % 97 == 0) {
+          // Reads see the active list, the frozen lists and the runs together.
+          assertTrue(table.containsKey(key) == expected.containsKey(key));
+        } // if
+      } // for
+      table.flush();
+      assertTrue(table.frozen.isEmpty());
+      assertTrue(table.runs.size() > 10);
+      table.put(-1, "active");
+      table.delete(0);
+      expected.put(-1, "active");
+      expected.remove(0);
+      assertTrue(table.size() == expected.size());
+      Iterator<Integer> keys = table.keys();
+      for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+        Integer key = keys.next();
+        assertTrue(key.equals(entry.getKey()));
+        assertTrue(table.get(key).equals(entry.getValue()));
+      } // for
+      assertFalse(keys.hasNext());
+      Iterator<Map.Entry<Integer, String>> range = table.range(100, 200);
+      for (Map.Entry<Integer, String> entry : expected.subMap(100, 200).entrySet()) {
+        assertTrue(range.next().equals(entry));
+      } // for
+      assertFalse(range.hasNext());
+      table.close();
+
+      // Reopening finds the runs.
+      table = new MemTable<Integer, String>(dir, (i, j) -> i - j, Codec.INT, Codec.STRING,
+          (k, v) -> 4 + ((v == null) ? 0 : v.length()), 1 << 12);
+      assertTrue(table.size() == expected.size());
+      for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+        assertTrue(table.get(entry.getKey()).equals(entry.getValue()));
+      } // for
+      assertFalse(table.containsKey(0));
+      table.close();
+      try {
+        table.put(1, "closed");
+        fail("put after close");
+      } catch (IllegalStateException e) {
+        // Expected
+      } // try/catch
+    } finally {
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path file : files.toArray(Path[]::new)) {
+          Files.delete(file);
+        } // for
+      } // try
+      Files.delete(dir);
+    } // try/finally
+  } // memTableTest()
+
+  @Test
+  public void mappedTest() throws Exception {
+    Path file = Files.createTempFile("mapped", ".skmp");
+    try {
+      SkipList<Integer, String> list = new SkipList<Integer, String>((i, j) -> i - j);
+      MappedSkipList.write(list, Codec.INT, Codec.STRING, file);
+      MappedSkipList<Integer, String> mapped =
+          new MappedSkipList<Integer, String>(file, (i, j) -> i - j, Codec.INT, Codec.STRING);
+      assertTrue(mapped.size() == 0);
+      assertFalse(mapped.containsKey(1));
+      assertFalse(mapped.keys().hasNext());
+
+      for (int i = 0; i < 5000; i++) {
+        list.set(2 * random.nextInt(10000), (i % 100 == 0) ? null : value(i % 1000));
+      } // for
+      MappedSkipList.write(list, Codec.INT, Codec.STRING, file);
+      mapped = new MappedSkipList<Integer, String>(file, (i, j) -> i - j, Codec.INT, Codec.STRING);
+      assertTrue(mapped.size() == list.size());
+      for (int key = -1; key <= 20000; key++) {
+        assertTrue(mapped.containsKey(key) == list.containsKey(key));
+        if (list.containsKey(key)) {
+          assertTrue(Objects.equals(mapped.get(key), list.get(key)));
+        } // if
+      } // for
+      Iterator<Integer> keys = mapped.keys();
+      Iterator<String> values = mapped.values();
+      list.forEach((key, value) -> {
+        assertTrue(keys.next().equals(key));
+        assertTrue(Objects.equals(values.next(), value));
+      });
+      assertFalse(keys.hasNext());
+      Iterator<Map.Entry<Integer, String>> expected = list.range(501, 3000);
+      Iterator<Map.Entry<Integer, String>> range = mapped.range(501, 3000);
+      while (expected.hasNext()) {
+        assertTrue(range.next().equals(expected.next()));
+      } // while
+      assertFalse(range.hasNext());
+      try {
+        mapped.set(1, "read-only");
+        fail("set on a mapped list");
+      } catch (UnsupportedOperationException e) {
+        // Expected
+      } // try/catch
+    } finally {
+      Files.delete(file);
+    } // try/finally
+  } // mappedTest()
+
+  @Test
+  public void cacheTest() {
+    ArrayList<String> evicted = new ArrayList<String>();
+    SkipListCache<Integer, String> lru =
+        new SkipListCache<Integer, String>((i, j) -> i - j, 3, EvictionPolicy.lru());
+    lru.addListener((key, value, cause) -> evicted.add(key + ":" + cause));
+    lru.set(1, "a");
+    lru.set(2, "b");
+    lru.set(3, "c");
+    assertTrue(lru.get(1).equals("a"));
+    lru.set(4, "d");
+    assertTrue(evicted.equals(Arrays.asList("2:SIZE")));
+    assertFalse(lru.containsKey(2));
+    try {
+      lru.get(2);
+      fail("get of an evicted key");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    } // try/catch
+    assertTrue(lru.hits() == 1 && lru.misses() == 1 && lru.evictions() == 1);
+    // Iteration is in key order, whatever the recency.
+    Iterator<Integer> keys = lru.keys();
+    for (int key : new int[] {1, 3, 4}) {
+      assertTrue(keys.next() == key);
+    } // for
+    assertFalse(keys.hasNext());
+
+    SkipListCache<Integer, String> lfu =
+        new SkipListCache<Integer, String>((i, j) -> i - j, 3, EvictionPolicy.lfu());
+    for (int key = 1; key <= 3; key++) {
+      lfu.set(key, value(key));
+    } // for
+    lfu.get(1);
+    lfu.get(1);
+    lfu.get(3);
+    lfu.get(2);
+    lfu.get(2);
+    lfu.set(4, "d");
+    // Room is made before 4 is added, so it is not evicted for being used least.
+    assertFalse(lfu.containsKey(3));
+    lfu.set(5, "e");
+    assertFalse(lfu.containsKey(4));
+    assertTrue(lfu.containsKey(1) && lfu.containsKey(2) && lfu.containsKey(5));
+
+    long[] now = new long[1];
+    SkipListCache<Integer, String> ttl = new SkipListCache<Integer, String>((i, j) -> i - j,
+        (k, v) -> v.length(), 100, new EvictionPolicy.Ttl<Integer, String>(10, () -> now[0]));
+    for (int i = 0; i < 20; i++) {
+      now[0] = i;
+      ttl.set(i, value(i));
+      assertTrue(ttl.weight() <= 100);
+    } // for
+    // Setting a value drops the entries that expired.
+    assertTrue(ttl.size() == 10 && !ttl.containsKey(9) && ttl.containsKey(10));
+    now[0] = 25;
+    Iterator<Map.Entry<Integer, String>> range = ttl.range(0, 100);
+    for (int key = 16; key < 20; key++) {
+      assertTrue(range.next().getKey() == key);
+    } // for
+    assertFalse(range.hasNext());
+    assertTrue(ttl.remove(14) == null);
+    assertTrue(ttl.remove(17).equals(value(17)));
+    // A big entry pushes out the oldest ones.
+    ttl.set(30, String.format("%090d", 0));
+    assertTrue(ttl.weight() <= 100 && ttl.containsKey(30) && !ttl.containsKey(16));
+    // One that could never fit is evicted at once, and leaves the others alone.
+    long weight = ttl.weight();
+    int size = ttl.size();
+    long evictions = ttl.evictions();
+    ttl.set(31, String.format("%0101d", 0));
+    assertFalse(ttl.containsKey(31));
+    assertTrue(ttl.weight() == weight && ttl.size() == size && ttl.containsKey(30));
+    assertTrue(ttl.evictions() == evictions + 1);
+    assertTrue(ttl.set(30, String.format("%0101d", 0)).length() == 90);
+    assertFalse(ttl.containsKey(30));
+    assertTrue(ttl.weight() == weight - 90 && ttl.size() == size - 1);
+  } // cacheTest()
+
+  @Test
+  public void frontCacheTest() {
+    SkipList<Integer, Integer> list = new SkipList<Integer, Integer>((i, j) -> i - j);
+    HistogramMetrics metrics = new HistogramMetrics();
+    list.setMetrics(metrics);
+    list.setFrontCache(64);
+    for (int i = 0; i < 1000; i++) {
+      list.set(i, i);
+    } // for
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 1000; i += 100) {
+        assertTrue(list.get(i) == i);
+      } // for
+    } // for
+    // The second round finds most keys without a hop.
+    assertTrue(metrics.snapshot().hopHistogram(SkipListMetrics.Operation.GET)[0] >= 5);
+    list.set(100, -100);
+    assertTrue(list.get(100) == -100);
+    list.remove(200);
+    assertFalse(list.containsKey(200));
+    list.set(200, 200);
+    assertTrue(list.get(200) == 200);
+
+    // Keys whose hashes disagree with the comparator miss the cache but are still found.
+    SkipList<String, Integer> names = new SkipList<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+    names.setFrontCache(16);
+    names.set("Alpha", 1);
+    assertTrue(names.get("ALPHA") == 1);
+    assertTrue(names.get("alpha") == 1);
+    names.remove("aLpHa");
+    assertTrue(names.size() == 0);
+    assertFalse(names.containsKey("Alpha"));
+    // The removed key stays gone whichever spelling probes for it.
+    assertFalse(names.containsKey("ALPHA"));
+    assertFalse(names.containsKey("alpha"));
+    names.set("alpha", 7);
+    assertTrue(names.get("ALPHA") == 7);
+    assertTrue(names.get("Alpha") == 7);
+    names.setFrontCache(0);
+    names.set("beta", 2);
+    assertTrue(names.get("BETA") == 2);
+  } // frontCacheTest()
+
+  @Test
+  public void analysisRunnerTest() throws Exception {
+    List<AnalysisRunner.Sample> samples =
+        new AnalysisRunner(new int[] {100, 10, 1000}, 50, 1).run();
+    assertTrue(samples.size() == 3);
+    assertTrue(samples.get(0).size == 10 && samples.get(2).size == 1000);
+    for (AnalysisRunner.Sample sample : samples) {
+      assertTrue(sample.reps == 50);
+      assertTrue(sample.meanSteps >= 1 && sample.maxSteps >= sample.meanSteps);
+      assertTrue(sample.p50Nanos <= sample.p99Nanos && sample.p99Nanos <= sample.maxNanos);
+    } // for
+    StringWriter csv = new StringWriter();
+    AnalysisRunner.writeCsv(samples, new PrintWriter(csv));
+    assertTrue(csv.toString().split("\n").length == 4);
+    StringWriter json = new StringWriter();
+    AnalysisRunner.writeJson(samples, new PrintWriter(json));
+    assertTrue(json.toString().trim().startsWith("["));
+    assertTrue(json.toString().contains("\"size\": 1000"));
+    File png = File.createTempFile("analysis", ".png");
+    try {
+      AnalysisRunner.writePng(samples, png);
+      assertTrue(png.length() > 0);
+    } finally {
+      png.delete();
+    } // try/finally
+  } // analysisRunnerTest()
+
 
   public static void main(String[] args) {
     SkipListTests slt = new SkipListTests();
@@ -0,0 +1,231 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+
+/**
+ * Draws parts of a skip list without walking all of it, so that a list of millions of entries can
+ * be inspected. A summary lists a bounded number of nodes from each level; a window draws a run
+ * of consecutive nodes, found with one search, as text, Graphviz or JSON. Each takes time
+ * proportional to what it writes, plus one logarithmic search for a window.
+ *
+ * Output goes through a buffer to a channel, which is flushed but not closed.
+ */
+public class SkipListVisualizer {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of the output buffer, in characters.
+   */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The width of a key in the text format, as in SkipList.dump.
+   */
+  static final int KEY_WIDTH = 10;
+
+  /**
+   * The formats a window can be drawn in.
+   */
+  public enum Format {
+    /**
+     * One line per node, with a column per level, like SkipList.dump.
+     */
+    TEXT,
+
+    /**
+     * A Graphviz digraph with a record per node and an edge per link.
+     */
+    DOT,
+
+    /**
+     * An object with the list's size and height and an array of nodes.
+     */
+    JSON
+  } // Format
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Write a summary of list: for each level from the top, how many nodes we expect there and
+   * the keys of at most perLevel of them, from the front.
+   */
+  public static <K, V> void summary(SkipList<K, V> list, int perLevel, WritableByteChannel out)
+      throws IOException {
+    Writer pen = writer(out);
+    pen.write("size " + list.size + ", height " + list.height + "\n");
+    for (int level = list.height - 1; level > -1; level--) {
+      pen.write(String.format("level %2d: about %.0f nodes:", level,
+          list.size * Math.pow(list.prob, level)));
+      SkipList.SLNode<K, V> node = list.head.next[level];
+      for (int i = 0; node != null && i < perLevel; i++) {
+        pen.write(" ");
+        pen.write(String.valueOf(node.key));
+        node = node.next[level];
+      } // for
+      pen.write(node == null ? "\n" : " ...\n");
+    } // for
+    pen.flush();
+  } // summary(SkipList, int, WritableByteChannel)
+
+  /**
+   * Draw the count nodes of list that start with the first key at least from (or with the first
+   * key, if from is null).
+   */
+  public static <K, V> void window(SkipList<K, V> list, K from, int count, Format format,
+      WritableByteChannel out) throws IOException {
+    Writer pen = writer(out);
+    SkipList.SLNode<K, V> first = list.ceiling(from);
+    switch (format) {
+      case TEXT:
+        text(list, first, count, pen);
+        break;
+      case DOT:
+        dot(list, first, count, pen);
+        break;
+      default:
+        json(list, first, count, pen);
+        break;
+    } // switch
+    pen.flush();
+  } // window(SkipList, K, int, Format, WritableByteChannel)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Buffer the characters we write to a channel.
+   */
+  static Writer writer(WritableByteChannel out) {
+    return new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), -1),
+        BUFFER_SIZE);
+  } // writer(WritableByteChannel)
+
+  /**
+   * Write count nodes from first as rows of links, one row per node.
+   */
+  static <K, V> void text(SkipList<K, V> list, SkipList.SLNode<K, V> first, int count, Writer pen)
+      throws IOException {
+    SkipList.SLNode<K, V> node = first;
+    for (int i = 0; node != null && i < count; i++) {
+      String key = String.valueOf(node.key);
+      if (key.length() > KEY_WIDTH) {
+        key = key.substring(0, KEY_WIDTH);
+      } // if
+      for (int pad = key.length(); pad < KEY_WIDTH; pad++) {
+        pen.write(' ');
+      } // for
+      pen.write(key);
+      for (int level = 0; level < list.height; level++) {
+        pen.write(level < node.next.length ? "-*" : " |");
+      } // for
+      pen.write('\n');
+      node = node.next[0];
+    } // for
+    if (node != null) {
+      pen.write("       ...\n");
+    } // if
+  } // text(SkipList, SLNode, int, Writer)
+
+  /**
+   * Write count nodes from first as a Graphviz digraph. Links that leave the window end at a
+   * node labeled with an ellipsis.
+   */
+  static <K, V> void dot(SkipList<K, V> list, SkipList.SLNode<K, V> first, int count, Writer pen)
+      throws IOException {
+    pen.write("digraph skiplist {\n  rankdir=LR;\n  node [shape=record];\n");
+    pen.write("  more [shape=plaintext, label=\"...\"];\n");
+    IdentityHashMap<SkipList.SLNode<K, V>, Integer> positions =
+        new IdentityHashMap<SkipList.SLNode<K, V>, Integer>();
+    SkipList.SLNode<K, V> node = first;
+    for (int i = 0; node != null && i < count; i++) {
+      positions.put(node, i);
+      pen.write("  n" + i + " [label=\"{");
+      for (int level = node.next.length - 1; level > -1; level--) {
+        pen.write("<l" + level + ">|");
+      } // for
+      pen.write(dotEscape(String.valueOf(node.key)) + "}\"];\n");
+      node = node.next[0];
+    } // for
+    node = first;
+    for (int i = 0; i < positions.size(); i++) {
+      for (int level = 0; level < node.next.length; level++) {
+        if (node.next[level] != null) {
+          Integer j = positions.get(node.next[level]);
+          pen.write("  n" + i + ":l" + level + " -> " + (j == null ? "more" : "n" + j) + ";\n");
+        } // if
+      } // for
+      node = node.next[0];
+    } // for
+    pen.write("}\n");
+  } // dot(SkipList, SLNode, int, Writer)
+
+  /**
+   * Write count nodes from first as JSON. Each node has its key, its height and the key each of
+   * its links leads to (or null, at the end of a level).
+   */
+  static <K, V> void json(SkipList<K, V> list, SkipList.SLNode<K, V> first, int count, Writer pen)
+      throws IOException {
+    pen.write("{\"size\": " + list.size + ", \"height\": " + list.height + ", \"nodes\": [");
+    SkipList.SLNode<K, V> node = first;
+    for (int i = 0; node != null && i < count; i++) {
+      pen.write(i == 0 ? "\n" : ",\n");
+      pen.write("  {\"key\": \"" + jsonEscape(String.valueOf(node.key)) + "\", \"height\": "
+          + node.next.length + ", \"next\": [");
+      for (int level = 0; level < node.next.length; level++) {
+        SkipList.SLNode<K, V> next = node.next[level];
+        pen.write(level == 0 ? "" : ", ");
+        pen.write(next == null ? "null" : "\"" + jsonEscape(String.valueOf(next.key)) + "\"");
+      } // for
+      pen.write("]}");
+      node = node.next[0];
+    } // for
+    pen.write("\n], \"more\": " + (node != null) + "}\n");
+  } // json(SkipList, SLNode, int, Writer)
+
+  /**
+   * Escape a string for a JSON string: backslashes, quotes and control characters.
+   */
+  static String jsonEscape(String str) {
+    StringBuilder escaped = new StringBuilder(str.length());
+    for (int i = 0; i < str.length(); i++) {
+      char ch = str.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        escaped.append('\\').append(ch);
+      } else if (ch < ' ') {
+        escaped.append(String.format("\\u%04x", (int) ch));
+      } else {
+        escaped.append(ch);
+      } // if/else
+    } // for
+    return escaped.toString();
+  } // jsonEscape(String)
+
+  /**
+   * Escape a string for a field of a Graphviz record label, where braces, bars and angle brackets
+   * are structure. Control characters become spaces.
+   */
+  static String dotEscape(String str) {
+    StringBuilder escaped = new StringBuilder(str.length());
+    for (int i = 0; i < str.length(); i++) {
+      char ch = str.charAt(i);
+      if ("\"\\{}|<> ".indexOf(ch) >= 0) {
+        escaped.append('\\').append(ch);
+      } else if (ch < ' ') {
+        escaped.append(' ');
+      } else {
+        escaped.append(ch);
+      } // if/else
+    } // for
+    return escaped.toString();
+  } // dotEscape(String)
+} // SkipListVisualizer
@@ -0,0 +1,434 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable file of entries in key order, written from a skip list and searched through a
+ * block index. Entries are packed into blocks of about BLOCK_SIZE bytes; the index, which is
+ * kept in memory once the run is open, holds the first key, offset and length of each block, so
+ * a lookup reads a single block.
+ *
+ * A value may be TOMBSTONE, which records that the key was removed and hides it in older runs.
+ *
+ * The file holds the blocks, then the index, then a footer: the index offset, the number of
+ * blocks, the number of entries and the magic number. Each entry is a key and a value, encoded
+ * as in SkipListSnapshot; a tombstone has length -2.
+ */
+public class SortedRun<K, V> implements Closeable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The value that marks a removed key.
+   */
+  public static final Object TOMBSTONE = new Object();
+
+  /**
+   * The last four bytes of a run, "SKRN".
+   */
+  static final int MAGIC = 0x534B524E;
+
+  /**
+   * The size the writer aims for when it fills a block.
+   */
+  static final int BLOCK_SIZE = 1 << 12;
+
+  /**
+   * The size of the footer.
+   */
+  static final int FOOTER_SIZE = 24;
+
+  /**
+   * The length stored for a tombstone.
+   */
+  static final int TOMBSTONE_LENGTH = -2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file.
+   */
+  final Path path;
+
+  /**
+   * The open file, read with positional reads so that threads can share it.
+   */
+  final FileChannel channel;
+
+  /**
+   * The order of the keys.
+   */
+  final Comparator<? super K> comparator;
+
+  /**
+   * How keys are stored.
+   */
+  final Codec<K> keys;
+
+  /**
+   * How values are stored.
+   */
+  final Codec<V> values;
+
+  /**
+   * The first key of each block.
+   */
+  final ArrayList<K> firstKeys;
+
+  /**
+   * The offset of each block.
+   */
+  final long[] offsets;
+
+  /**
+   * The length of each block.
+   */
+  final int[] lengths;
+
+  /**
+   * The number of entries, tombstones included.
+   */
+  final long count;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open the run in a file and read its index.
+   *
+   * @throws IOException if the file is not a run.
+   */
+  public SortedRun(Path path, Comparator<? super K> comparator, Codec<K> keys, Codec<V> values)
+      throws IOException {
+    this.path = path;
+    this.comparator = comparator;
+    this.keys = keys;
+    this.values = values;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long size = this.channel.size();
+      if (size < FOOTER_SIZE) {
+        throw new IOException(path + " is not a sorted run");
+      } // if
+      ByteBuffer footer = this.read(size - FOOTER_SIZE, FOOTER_SIZE);
+      long indexOffset = footer.getLong();
+      int blocks = footer.getInt();
+      this.count = footer.getLong();
+      if (footer.getInt() != MAGIC || indexOffset < 0 || indexOffset > size - FOOTER_SIZE) {
+        throw new IOException(path + " is not a sorted run");
+      } // if
+      ByteBuffer index = this.read(indexOffset, (int) (size - FOOTER_SIZE - indexOffset));
+      this.firstKeys = new ArrayList<K>(blocks);
+      this.offsets = new long[blocks];
+      this.lengths = new int[blocks];
+      for (int i = 0; i < blocks; i++) {
+        this.firstKeys.add(SkipListSnapshot.decode(keys, index));
+        this.offsets[i] = index.getLong();
+        this.lengths[i] = index.getInt();
+      } // for
+    } catch (IOException | RuntimeException e) {
+      this.channel.close();
+      throw e;
+    } // try/catch
+  } // SortedRun(Path, Comparator, Codec<K>, Codec<V>)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Write the entries of list, in order, to a new run in file. Values that are TOMBSTONE are
+   * written as tombstones. The file is forced to the disk before this returns.
+   */
+  public static <K, V> void write(SkipList<K, ?> list, Codec<? super K> keys,
+      Codec<? super V> values, Path file) throws IOException {
+    try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+      ByteBuffer record = ByteBuffer.allocate(BLOCK_SIZE);
+      ByteBuffer index = ByteBuffer.allocate(BLOCK_SIZE);
+      long offset = 0;
+      long count = 0;
+      int blocks = 0;
+      for (SkipList.SLNode<K, ?> node = list.head.next[0]; node != null; node = node.next[0]) {
+        record = encodeRecord(record, keys, values, node.key, node.value);
+        if (block.position() > 0 && block.position() + record.remaining() > BLOCK_SIZE) {
+          offset += writeBlock(block, out);
+        } // if the block is full
+        if (block.position() == 0) {
+          index = encodeIndexEntry(index, keys, node.key, offset);
+          blocks++;
+        } // if the record starts a block
+        if (record.remaining() > block.remaining()) {
+          block = ByteBuffer.allocate(record.remaining());
+        } // if the record is bigger than a block
+        block.put(record);
+        // Fill in the length of the block's index entry as the block grows.
+        index.putInt(index.position() - Integer.BYTES, block.position());
+        count++;
+      } // for
+      if (block.position() > 0) {
+        offset += writeBlock(block, out);
+      } // if
+      long indexOffset = offset;
+      index.flip();
+      while (index.hasRemaining()) {
+        out.write(index);
+      } // while
+      ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+      footer.putLong(indexOffset).putInt(blocks).putLong(count).putInt(MAGIC).flip();
+      while (footer.hasRemaining()) {
+        out.write(footer);
+      } // while
+      out.force(true);
+    } // try
+  } // write(SkipList, Codec, Codec, Path)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Find the entry for key. Its value may be TOMBSTONE.
+   *
+   * @return the entry (or null, if the run does not have key)
+   */
+  public Map.Entry<K, Object> lookup(K key) throws IOException {
+    int block = this.blockFor(key);
+    if (block < 0) {
+      return null;
+    } // if
+    ByteBuffer buffer = this.read(this.offsets[block], this.lengths[block]);
+    while (buffer.hasRemaining()) {
+      K candidate = SkipListSnapshot.decode(this.keys, buffer);
+      int order = this.comparator.compare(candidate, key);
+      if (order > 0) {
+        return null;
+      } else if (order == 0) {
+        return new AbstractMap.SimpleImmutableEntry<K, Object>(candidate, this.decodeValue(buffer));
+      } // if/else
+      this.skipValue(buffer);
+    } // while
+    return null;
+  } // lookup(K)
+
+  /**
+   * Get an iterator over the entries with lo <= key, tombstones included, in order. A null lo
+   * is unbounded. It seeks to lo through the index and then reads a block at a time, throwing
+   * UncheckedIOException if a read fails.
+   */
+  public Iterator<Map.Entry<K, Object>> entries(K lo) {
+    return new Iterator<Map.Entry<K, Object>>() {
+      /**
+       * The next block to read.
+       */
+      int block = (lo == null) ? 0 : Math.max(SortedRun.this.blockFor(lo), 0);
+
+      /**
+       * The unread part of the current block.
+       */
+      ByteBuffer buffer = ByteBuffer.allocate(0);
+
+      /**
+       * The entry to return next (or null, if there is none).
+       */
+      Map.Entry<K, Object> next = this.advance();
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public Map.Entry<K, Object> next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        Map.Entry<K, Object> entry = this.next;
+        this.next = this.advance();
+        return entry;
+      } // next()
+
+      /**
+       * Read the next entry with lo <= key.
+       */
+      Map.Entry<K, Object> advance() {
+        while (true) {
+          if (!this.buffer.hasRemaining()) {
+            if (this.block == SortedRun.this.offsets.length) {
+              return null;
+            } // if
+            try {
+              this.buffer = SortedRun.this.read(SortedRun.this.offsets[this.block],
+                  SortedRun.this.lengths[this.block]);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            } // try/catch
+            this.block++;
+          } // if
+          K key = SkipListSnapshot.decode(SortedRun.this.keys, this.buffer);
+          if (lo != null && SortedRun.this.comparator.compare(key, lo) < 0) {
+            SortedRun.this.skipValue(this.buffer);
+          } else {
+            return new AbstractMap.SimpleImmutableEntry<K, Object>(key,
+                SortedRun.this.decodeValue(this.buffer));
+          } // if/else
+        } // while
+      } // advance()
+    };
+  } // entries(K)
+
+  /**
+   * Determine how many entries the run holds, tombstones included.
+   */
+  public long count() {
+    return this.count;
+  } // count()
+
+  /**
+   * Close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  } // close()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the last block whose first key is at most key.
+   *
+   * @return the block (or -1, if key precedes every block)
+   */
+  int blockFor(K key) {
+    int lo = 0;
+    int hi = this.offsets.length - 1;
+    int block = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.comparator.compare(this.firstKeys.get(mid), key) <= 0) {
+        block = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      } // if/else
+    } // while
+    return block;
+  } // blockFor(K)
+
+  /**
+   * Read length bytes at offset.
+   */
+  ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException(this.path + " is truncated");
+      } // if
+    } // while
+    buffer.flip();
+    return buffer;
+  } // read(long, int)
+
+  /**
+   * Read a value, which may be a tombstone.
+   */
+  Object decodeValue(ByteBuffer buffer) {
+    if (buffer.getInt(buffer.position()) == TOMBSTONE_LENGTH) {
+      buffer.getInt();
+      return TOMBSTONE;
+    } // if
+    return SkipListSnapshot.decode(this.values, buffer);
+  } // decodeValue(ByteBuffer)
+
+  /**
+   * Move past a value without decoding it.
+   */
+  void skipValue(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length > 0) {
+      buffer.position(buffer.position() + length);
+    } // if
+  } // skipValue(ByteBuffer)
+
+  /**
+   * Encode one entry into record, growing it if need be, and leave it ready to read.
+   *
+   * @return record, or its larger replacement
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> ByteBuffer encodeRecord(ByteBuffer record, Codec<? super K> keys,
+      Codec<? super V> values, K key, Object value) {
+    while (true) {
+      record.clear();
+      try {
+        SkipListSnapshot.encode(keys, key, record);
+        if (value == TOMBSTONE) {
+          record.putInt(TOMBSTONE_LENGTH);
+        } else {
+          SkipListSnapshot.encode(values, (V) value, record);
+        } // if/else
+        record.flip();
+        return record;
+      } catch (BufferOverflowException e) {
+        record = ByteBuffer.allocate(2 * record.capacity());
+      } // try/catch
+    } // while
+  } // encodeRecord(ByteBuffer, Codec, Codec, K, Object)
+
+  /**
+   * Add a block's first key and offset, and a placeholder for its length, to the index, growing
+   * it if need be.
+   *
+   * @return index, or its larger replacement
+   */
+  static <K> ByteBuffer encodeIndexEntry(ByteBuffer index, Codec<? super K> keys, K key,
+      long offset) {
+    while (true) {
+      int start = index.position();
+      try {
+        SkipListSnapshot.encode(keys, key, index);
+        index.putLong(offset).putInt(0);
+        return index;
+      } catch (BufferOverflowException e) {
+        index.position(start);
+        index.flip();
+        index = ByteBuffer.allocate(2 * index.capacity()).put(index);
+      } // try/catch
+    } // while
+  } // encodeIndexEntry(ByteBuffer, Codec, K, long)
+
+  /**
+   * Write a block and empty it.
+   *
+   * @return the number of bytes written
+   */
+  static int writeBlock(ByteBuffer block, FileChannel out) throws IOException {
+    block.flip();
+    int length = block.remaining();
+    while (block.hasRemaining()) {
+      out.write(block);
+    } // while
+    block.clear();
+    return length;
+  } // writeBlock(ByteBuffer, FileChannel)
+} // SortedRun<K, V>